@@ -1,10 +1,16 @@
 
 import goalplantree.*;
+import simulation.QsiStore;
 import simulation.Simulator;
-import xml2bdi.XMLReader;
+import xml2bdi.BinaryReader;
 import environment.*;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IntSummaryStatistics;
 import agent.*;
 
 public class Main {
@@ -15,9 +21,12 @@ public class Main {
         double total = 0;
         int type;
         int testNum;
+        int threads;
+        long budget;
+        double tolerance;
+        boolean metrics;
 
         String gptFilePath;
-        XMLReader reader;
 
         if (args.length == 0) {
             System.out.println("ERROR: no GPT file specified!");
@@ -41,34 +50,67 @@ public class Main {
         }catch (Exception e){
             testNum = 10;
         }
+        // read the number of parallel search trees
+        try{
+            threads = Integer.parseInt(args[3]);
+        }catch (Exception e){
+            threads = 1;
+        }
+        // read the time budget of each deliberation in milliseconds, 0 to run a fixed number of iterations
+        try{
+            budget = Long.parseLong(args[4]);
+        }catch (Exception e){
+            budget = 0;
+        }
+        // read the relative tolerance of the QSI estimates, 0 to run a fixed number of simulations per plan
+        try{
+            tolerance = Double.parseDouble(args[5]);
+        }catch (Exception e){
+            tolerance = 0;
+        }
+        // read whether the agent publishes the metrics of its searches over JMX (see MCTSAgent.setMetrics)
+        metrics = args.length > 6 && Boolean.parseBoolean(args[6]);
 
         System.out.println("type: " +  type);
 
-        Simulator simulator = new Simulator();
-
-        for(int m = 0; m < testNum; m++){
+        // the QSI pre-computation runs on the same number of threads as the searches
+        Simulator simulator = new Simulator(threads);
+        simulator.setConvergence(tolerance, 500);
 
+        // the GPT file is read once, the tests only share its structure
+        GptModel model = BinaryReader.read(gptFilePath);
+        if(model == null){
+            System.out.println("ERROR: unable to open GPT file: " + gptFilePath);
+            return;
+        }
+        // get the list of literals in the environment
+        ArrayList<Literal> literals = new ArrayList<>(model.getLiterals());
+        // get the list of goals
+        ArrayList<GoalNode> tlgs = new ArrayList<>(model.getTlgs());
+
+        // the QSI totals are only simulated once for the content of the GPT file, and shared by the tests
+        ExecutionState qsi = model.newState();
+        if(type == 5) {
             try {
-                reader = new XMLReader(gptFilePath);
-            } catch(Exception e) {
-                System.out.println("ERROR: unable to open GPT file: " + gptFilePath);
-                return;
-            }
-
-
-            // get the list of literals in the environment
-            ArrayList<Literal> literals = reader.getLiterals();
-            // get the list of goals
-            ArrayList<GoalNode> tlgs = reader.getTlgs();
-
-
-            if(type == 5) {
+                boolean loaded = QsiStore.simulate(simulator, Paths.get(gptFilePath), 10000, tlgs, qsi);
+                System.out.println(loaded ? "sim: loaded" : "sim: " + tlgs.size());
+                // report the number of simulations each plan needed
                 for (int i = 0; i < tlgs.size(); i++) {
-                    simulator.runSimulation(10000, tlgs.get(i));
-                    System.out.println("sim:" + i);
+                    int[] runs = Simulator.getSimulations(tlgs.get(i), qsi);
+                    IntSummaryStatistics stats = Arrays.stream(runs).summaryStatistics();
+                    System.out.println("sim:" + i + " plans: " + runs.length + " simulations: " + stats.getSum()
+                            + " (" + stats.getMin() + "-" + stats.getMax() + " per plan)");
                 }
+            } catch(IOException e) {
+                System.out.println("ERROR: unable to read GPT file: " + gptFilePath);
+                return;
             }
+        }
+
+        for(int m = 0; m < testNum; m++){
 
+            // the state of this test
+            ExecutionState state = new ExecutionState(qsi);
 
             // build the environment
             SynthEnvironment environment = new SynthEnvironment(literals, 0);
@@ -83,9 +125,9 @@ public class Main {
             }
 
             // build the fifo agent
-            MCTSAgent mctsAgent = new MCTSAgent("MCTS-Agent", bs, tlgs);
-            SPMCTSAgent spmctsAgent = new SPMCTSAgent("SPMCTS-Agent", bs, tlgs);
-            QSISPMCTSAgent qsispmctsAgent = new QSISPMCTSAgent("QSISPMCTS-Agent", bs, tlgs);
+            MCTSAgent mctsAgent = new MCTSAgent("MCTS-Agent", bs, tlgs, state);
+            SPMCTSAgent spmctsAgent = new SPMCTSAgent("SPMCTS-Agent", bs, tlgs, state);
+            QSISPMCTSAgent qsispmctsAgent = new QSISPMCTSAgent("QSISPMCTS-Agent", bs, tlgs, state);
 
 
             AbstractAgent agent = null;
@@ -97,6 +139,13 @@ public class Main {
                 case 5: agent = qsispmctsAgent; break;
             }
 
+            if(agent instanceof MCTSAgent){
+                ((MCTSAgent) agent).setThreads(threads);
+                if(budget > 0)
+                    ((MCTSAgent) agent).setBudget(Duration.ofMillis(budget));
+                ((MCTSAgent) agent).setMetrics(metrics);
+            }
+
             // add this agent to the environment
             environment.addAgent(agent);
 
@@ -108,10 +157,14 @@ public class Main {
                 running = environment.run();
                 step++;
             }
+            // release the threads of the parallel searches
+            if(agent instanceof MCTSAgent)
+                ((MCTSAgent) agent).shutdown();
             // check the number of goals achieved
             //System.out.println(agent.getNumAchivedGoal());
             total += agent.getNumAchivedGoal();
         }
+        System.out.println("achieved: " + total + " goals in " + testNum + " tests (" + total / testNum + " per test)");
 
     }
 
@@ -4,7 +4,9 @@ import environment.AbstractEnvironment;
 import goalplantree.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public abstract class AbstractAgent {
@@ -21,6 +23,10 @@ public abstract class AbstractAgent {
      * agent's current intentions
      */
     ArrayList<GoalPlanTree> intentions;
+    /**
+     * the state of the execution of the agent's goal-plan trees, which the trees themselves do not hold
+     */
+    ExecutionState state;
     /**
      * plan choice and intention choice in the current cycle
      */
@@ -38,6 +44,10 @@ public abstract class AbstractAgent {
      * values between 0 and 1 represents that the agent can sense the changes but not will full confidence
      */
     private HashMap<String, Double> vision;
+    /**
+     * the vision of the agent indexed by the literal ids (see LiteralTable)
+     */
+    private double[] visions;
 
     /**
      * constructor
@@ -53,7 +63,7 @@ public abstract class AbstractAgent {
             vs.put(bs.get(i).lit_name, 1d);
         }
         // initialise the agent's state with given belief base
-        init(bs, new ArrayList<>(), vs);
+        init(bs, new ArrayList<>(), vs, new ExecutionState());
     }
 
     public AbstractAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs){
@@ -65,13 +75,28 @@ public abstract class AbstractAgent {
             vs.put(bs.get(i).lit_name, 1d);
         }
         // initialise the agent's state with given belief base and top-level goals
-        init(bs, gs, vs);
+        init(bs, gs, vs, new ExecutionState());
+    }
+
+    /**
+     * @param id name of this agent
+     * @param bs the initial beliefs
+     * @param gs the top-level goals
+     * @param state the state of the run of the goals, e.g., with their QSI totals
+     */
+    public AbstractAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs, ExecutionState state){
+        this.name = id;
+        HashMap<String, Double> vs = new HashMap<>();
+        for(int i = 0; i < bs.size(); i++){
+            vs.put(bs.get(i).lit_name, 1d);
+        }
+        init(bs, gs, vs, state);
     }
 
     public AbstractAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs, HashMap<String, Double> vs){
         this.name = id;
         // initialise the agent's state with given belief base, top-level goals and visions
-        init(bs, gs, vs);
+        init(bs, gs, vs, new ExecutionState());
     }
 
     /**
@@ -79,19 +104,26 @@ public abstract class AbstractAgent {
      * @param bs a list of initial beliefs
      * @param gs a list of top-level goals
      * @param vs the initial vision
+     * @param state the state of the run of the goals
      */
-    private void init(ArrayList<Belief> bs, ArrayList<GoalNode> gs, HashMap<String, Double> vs){
+    private void init(ArrayList<Belief> bs, ArrayList<GoalNode> gs, HashMap<String, Double> vs, ExecutionState state){
         // initialise the belief base
         bb = new BeliefBaseImp(bs);
         // initialise the intentions
+        this.state = state;
         intentions = new ArrayList<>();
         for(GoalNode g : gs){
-            intentions.add(new GoalPlanTree(g));
+            intentions.add(new GoalPlanTree(g, state));
         }
         // initialise the vision
         vision = new HashMap<>();
+        visions = new double[LiteralTable.size()];
         for(Map.Entry<String, Double> entry : vs.entrySet()){
             vision.put(entry.getKey(), entry.getValue());
+            int id = LiteralTable.intern(entry.getKey());
+            if(id >= visions.length)
+                visions = Arrays.copyOf(visions, Math.max(id + 1, 2 * visions.length));
+            visions[id] = entry.getValue();
         }
         // initialise the choices
         choices = new ArrayList<>();
@@ -105,7 +137,7 @@ public abstract class AbstractAgent {
      */
     public void sense(AbstractEnvironment environment){
         // get the percepts from the environment
-        ArrayList<Literal> percepts = environment.getStates(vision);
+        List<Literal> percepts = environment.getStates(visions);
 
         // update agent's belief base, the percepts might be wrong or with a certain probability
         // here we use the default updates
@@ -120,10 +152,17 @@ public abstract class AbstractAgent {
         if(goals == null)
             return;
         for(GoalNode g : goals){
-            intentions.add(new GoalPlanTree(g));
+            intentions.add(new GoalPlanTree(g, state));
         }
     }
 
+    /**
+     * @return the state of the execution of the agent's goal-plan trees
+     */
+    public ExecutionState getExecutionState(){
+        return state;
+    }
+
     /**
      * @return the number of goals achieved
      */
@@ -1,5 +1,7 @@
 package agent;
+import goalplantree.Condition;
 import goalplantree.Literal;
+import goalplantree.LiteralTable;
 
 import java.util.*;
 
@@ -15,9 +17,28 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
     /**
      * a belief base is a map of proposition and probability pairs.
      * The probability represent the agent's subjective probability of the corresponding proposition being true
-     * in the current environment
+     * in the current environment.
+     *
+     * The beliefs are indexed by the interned literal ids (see LiteralTable) and stored as bitsets, one bit per
+     * literal: whether there is a belief about it, and for beliefs of probability 0 or 1 whether it is true.
+     * Beliefs with other probabilities are marked as uncertain and their probability is kept in a side array.
      */
-    public Map<String, Belief> beliefs;
+    private long[] known;
+    private long[] truth;
+    private long[] uncertain;
+    /**
+     * the probabilities of the uncertain beliefs, null if there has never been one
+     */
+    private double[] probs;
+    /**
+     * the number of beliefs
+     */
+    private int size;
+    /**
+     * the Zobrist hash of the beliefs, i.e., the xor of a random key for the value of each belief. It is updated
+     * incrementally whenever a belief changes.
+     */
+    private long zobrist;
 
     /**
      * initial capacity of this belief base
@@ -26,7 +47,7 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
 
 
     public BeliefBaseImp(){
-        beliefs = new HashMap<>(initialCapacity);
+        init(Math.max(initialCapacity, LiteralTable.size()));
     }
 
     /**
@@ -35,21 +56,44 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
      */
     public BeliefBaseImp(int capacity){
         initialCapacity = capacity;
-        beliefs = new HashMap<>(initialCapacity);
+        init(Math.max(initialCapacity, LiteralTable.size()));
     }
 
     public BeliefBaseImp(ArrayList<Belief> percept){
-        beliefs = new HashMap<>(percept.size());
+        init(Math.max(percept.size(), LiteralTable.size()));
         for(Belief p : percept){
             update(p.lit_name, p.prob);
         }
     }
 
+    private void init(int capacity){
+        int words = (capacity + 63) >>> 6;
+        known = new long[words];
+        truth = new long[words];
+        uncertain = new long[words];
+        size = 0;
+        zobrist = 0;
+    }
+
+    /**
+     * make sure the bitsets can hold a literal with the given id
+     * @param id the literal id
+     */
+    private void ensureCapacity(int id){
+        int word = id >>> 6;
+        if(word >= known.length){
+            int words = Math.max(word + 1, known.length * 2);
+            known = Arrays.copyOf(known, words);
+            truth = Arrays.copyOf(truth, words);
+            uncertain = Arrays.copyOf(uncertain, words);
+        }
+    }
+
     /**
      * @return the size of this belief base
      */
     public int getSize(){
-        return beliefs.size();
+        return size;
     }
 
 
@@ -57,7 +101,33 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
      * clear the belief set
      */
     public void clear(){
-        beliefs.clear();
+        Arrays.fill(known, 0);
+        Arrays.fill(truth, 0);
+        Arrays.fill(uncertain, 0);
+        size = 0;
+        zobrist = 0;
+    }
+
+    /**
+     * set a belief with probability 0 or 1
+     * @param id the literal id
+     * @param value true, if the literal is believed to be true
+     */
+    private void set(int id, boolean value){
+        ensureCapacity(id);
+        zobrist ^= key(id);
+        int word = id >>> 6;
+        long bit = 1L << id;
+        if((known[word] & bit) == 0){
+            known[word] |= bit;
+            size++;
+        }
+        if(value)
+            truth[word] |= bit;
+        else
+            truth[word] &= ~bit;
+        uncertain[word] &= ~bit;
+        zobrist ^= key(id, value);
     }
 
     /**
@@ -68,14 +138,8 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
     public void update(Literal literal){
         if (literal==null)
             return;
-
-        if(literal.getState()){
-            // if it is a positive literal, then set the probability to 1
-            beliefs.put(literal.getName(), new Belief(literal.getName(), 1));
-        }else {
-            // if it is a negative literal, then set it to 0
-            beliefs.put(literal.getName(), new Belief(literal.getName(), 0));
-        }
+        // a positive literal sets the probability to 1, a negative literal sets it to 0
+        set(literal.getId(), literal.getState());
     }
 
     /**
@@ -85,7 +149,19 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
      */
     public void update(String name, Double prob){
         if(prob >=0 && prob <= 1){
-           beliefs.put(name, new Belief(name, prob));
+            int id = LiteralTable.intern(name);
+            if(prob == 0 || prob == 1){
+                set(id, prob == 1);
+            }else {
+                set(id, false);
+                zobrist ^= key(id, false);
+                if(probs == null || probs.length <= id){
+                    probs = probs == null ? new double[known.length << 6] : Arrays.copyOf(probs, known.length << 6);
+                }
+                probs[id] = prob;
+                uncertain[id >>> 6] |= 1L << id;
+                zobrist ^= key(id);
+            }
         }else {
             System.err.println("The probability of a literal being true must within the range of 0 to 1");
         }
@@ -111,6 +187,30 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
         }
     }
 
+    /**
+     * update the belief base according to a compiled postcondition, one word of the bitsets at a time
+     * @param condition a compiled condition
+     */
+    public void update(Condition condition){
+        for(int i = 0; i < condition.size(); i++){
+            int w = condition.word(i);
+            long mask = condition.mask(i);
+            long values = condition.values(i);
+            ensureCapacity(w << 6);
+            // the keys of the beliefs that change
+            long changed = mask & ~(known[w] & ~uncertain[w] & ~(truth[w] ^ values));
+            while (changed != 0){
+                int id = (w << 6) + Long.numberOfTrailingZeros(changed);
+                zobrist ^= key(id) ^ key(id, (values & (1L << id)) != 0);
+                changed &= changed - 1;
+            }
+            size += Long.bitCount(mask & ~known[w]);
+            known[w] |= mask;
+            truth[w] = (truth[w] & ~mask) | values;
+            uncertain[w] &= ~mask;
+        }
+    }
+
     /**
      * Given lists of literal names and their probabilities, update the belief base
      * @param names a list of literal names
@@ -124,20 +224,109 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
         }
     }
 
+    /**
+     * @param id a literal id
+     * @return the probability of the literal with this id being true, 0 if there is no belief about it
+     */
+    private double prob(int id){
+        int word = id >>> 6;
+        if(word >= known.length)
+            return 0;
+        long bit = 1L << id;
+        if((uncertain[word] & bit) != 0)
+            return probs[id];
+        return (truth[word] & bit) != 0 ? 1 : 0;
+    }
+
+
+    /**
+     * @return the Zobrist hash of the beliefs, equal belief bases have the same hash
+     */
+    public long zobrist(){
+        return zobrist;
+    }
+
+    /**
+     * @param literals a list of literals
+     * @return the Zobrist hash of the beliefs after updating this belief base with the literals, without updating it
+     */
+    public long zobristAfter(Literal[] literals){
+        long h = zobrist;
+        literalloop:
+        for(int i = 0; i < literals.length; i++){
+            int id = literals[i].getId();
+            // only the last update of a literal counts
+            for(int j = i + 1; j < literals.length; j++){
+                if(literals[j].getId() == id)
+                    continue literalloop;
+            }
+            h ^= key(id) ^ key(id, literals[i].getState());
+        }
+        return h;
+    }
+
+    /**
+     * @param condition a compiled postcondition
+     * @return the Zobrist hash of the beliefs after updating this belief base with the condition, without updating it
+     */
+    public long zobristAfter(Condition condition){
+        long h = zobrist;
+        for(int i = 0; i < condition.size(); i++){
+            int w = condition.word(i);
+            long values = condition.values(i);
+            long changed = condition.mask(i) & ~(word(known, w) & ~word(uncertain, w) & ~(word(truth, w) ^ values));
+            while (changed != 0){
+                int id = (w << 6) + Long.numberOfTrailingZeros(changed);
+                h ^= key(id) ^ key(id, (values & (1L << id)) != 0);
+                changed &= changed - 1;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * @param id a literal id
+     * @return the random key of the current belief about the literal, 0 if there is no belief about it
+     */
+    private long key(int id){
+        int word = id >>> 6;
+        long bit = 1L << id;
+        if(word >= known.length || (known[word] & bit) == 0)
+            return 0;
+        if((uncertain[word] & bit) != 0)
+            return mix(mix(3L * id + 2) ^ Double.doubleToLongBits(probs[id]));
+        return key(id, (truth[word] & bit) != 0);
+    }
+
+    /**
+     * @param id a literal id
+     * @param value the truth value of the literal
+     * @return the random key of the belief that the literal has the given value
+     */
+    private static long key(int id, boolean value){
+        return mix(3L * id + (value ? 1 : 0));
+    }
+
+    /**
+     * the finaliser of the SplitMix64 generator, which turns consecutive numbers into well distributed keys
+     */
+    private static long mix(long z){
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
 
     /**
      * @param literal the given literal;
      * @return the probability of the given literal holds in the current environment
      */
     public double evaluate(Literal literal){
-
-
         // for a positive literal, return the probability
         if(literal.getState())
-            return beliefs.get(literal.getName()).prob;
+            return prob(literal.getId());
         // for a negative literal, return the probability of its negation being false
         else
-            return 1 - beliefs.get(literal.getName()).prob;
+            return 1 - prob(literal.getId());
     }
 
     /**
@@ -146,7 +335,7 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
      */
     public double evaluate(Literal[] literals){
         double prob = 1;
-        for(int i = 0; i < literals.length; i++){
+        for(int i = 0; i < literals.length && prob != 0; i++){
             prob *= evaluate(literals[i]);
         }
         return prob;
@@ -154,12 +343,49 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
 
     public double evaluate(List<Literal> literals){
         double prob = 1;
-        for(int i = 0; i < literals.size(); i++){
+        for(int i = 0; i < literals.size() && prob != 0; i++){
             prob *= evaluate(literals.get(i));
         }
         return prob;
     }
 
+    /**
+     * @param condition a compiled condition
+     * @return the probability of the condition holds. It is checked one word of the bitsets at a time as long as the
+     * beliefs are certain, and evaluated literal by literal if one of them is uncertain.
+     */
+    public double evaluate(Condition condition){
+        if(condition.isContradictory())
+            return evaluate(condition.getLiterals());
+        for(int i = 0; i < condition.size(); i++){
+            int w = condition.word(i);
+            long mask = condition.mask(i);
+            if((word(uncertain, w) & mask) != 0)
+                return evaluate(condition.getLiterals());
+            // a literal without belief is false
+            if(((word(truth, w) ^ condition.values(i)) & mask) != 0)
+                return 0;
+        }
+        return 1;
+    }
+
+
+    /**
+     * project the beliefs onto the literals of a condition. Two belief bases with the same projection give the same
+     * results to the conditions over these literals which require certain beliefs, e.g., the plan contexts.
+     * @param condition a compiled condition, whose values are ignored
+     * @param projection the array receiving the projection, two words for each word of the condition: the literals
+     *                   believed to be true, and the uncertain literals
+     */
+    public void project(Condition condition, long[] projection){
+        for(int i = 0; i < condition.size(); i++){
+            int w = condition.word(i);
+            long mask = condition.mask(i);
+            long u = word(uncertain, w) & mask;
+            projection[2 * i] = word(truth, w) & mask & ~u;
+            projection[2 * i + 1] = u;
+        }
+    }
 
     /**
      * clone
@@ -167,11 +393,89 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
      */
     @Override
     public BeliefBaseImp clone(){
-        BeliefBaseImp beliefBaseImp = new BeliefBaseImp(getSize());
-        for(Map.Entry<String, Belief> b : this){
-            beliefBaseImp.beliefs.put(b.getKey(), b.getValue());
+        try {
+            BeliefBaseImp beliefBaseImp = (BeliefBaseImp) super.clone();
+            beliefBaseImp.known = known.clone();
+            beliefBaseImp.truth = truth.clone();
+            beliefBaseImp.uncertain = uncertain.clone();
+            if(probs != null)
+                beliefBaseImp.probs = probs.clone();
+            return beliefBaseImp;
+        }catch (CloneNotSupportedException e){
+            throw new AssertionError(e);
         }
-        return beliefBaseImp;
+    }
+
+    /**
+     * replace the beliefs in this belief base by the ones in the given belief base, reusing the arrays of this one
+     * when they are large enough
+     * @param other the given belief base
+     */
+    public void copyFrom(BeliefBaseImp other){
+        int words = other.known.length;
+        if(known.length < words){
+            known = new long[words];
+            truth = new long[words];
+            uncertain = new long[words];
+        }
+        System.arraycopy(other.known, 0, known, 0, words);
+        System.arraycopy(other.truth, 0, truth, 0, words);
+        System.arraycopy(other.uncertain, 0, uncertain, 0, words);
+        Arrays.fill(known, words, known.length, 0);
+        Arrays.fill(truth, words, truth.length, 0);
+        Arrays.fill(uncertain, words, uncertain.length, 0);
+        if(other.probs != null){
+            if(probs == null || probs.length < other.probs.length)
+                probs = new double[other.probs.length];
+            System.arraycopy(other.probs, 0, probs, 0, other.probs.length);
+        }
+        size = other.size;
+        zobrist = other.zobrist;
+    }
+
+    /**
+     * @return true, if the given belief base has the same beliefs with the same probabilities
+     */
+    @Override
+    public boolean equals(Object o){
+        if(this == o)
+            return true;
+        if(!(o instanceof BeliefBaseImp))
+            return false;
+        BeliefBaseImp other = (BeliefBaseImp) o;
+        if(size != other.size)
+            return false;
+        int words = Math.max(known.length, other.known.length);
+        for(int i = 0; i < words; i++){
+            long k = word(known, i);
+            if(k != word(other.known, i) || (word(truth, i) & k) != (word(other.truth, i) & k))
+                return false;
+            long u = word(uncertain, i);
+            if(u != word(other.uncertain, i))
+                return false;
+            // compare the probabilities of the uncertain beliefs
+            while (u != 0){
+                int id = (i << 6) + Long.numberOfTrailingZeros(u);
+                if(probs[id] != other.probs[id])
+                    return false;
+                u &= u - 1;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode(){
+        int h = size;
+        for(int i = 0; i < known.length; i++){
+            if(known[i] != 0)
+                h = 31 * h + Long.hashCode(known[i]) ^ Long.hashCode(truth[i] & known[i]) * 17 + i;
+        }
+        return h;
+    }
+
+    private static long word(long[] bits, int i){
+        return i < bits.length ? bits[i] : 0;
     }
 
     /**
@@ -180,7 +484,42 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
      */
     @Override
     public Iterator<Map.Entry<String, Belief>> iterator(){
-        return beliefs.entrySet().iterator();
+        return new Iterator<Map.Entry<String, Belief>>() {
+            // the id of the next belief
+            int next = nextKnown(0);
+
+            @Override
+            public boolean hasNext(){
+                return next >= 0;
+            }
+
+            @Override
+            public Map.Entry<String, Belief> next(){
+                if(next < 0)
+                    throw new NoSuchElementException();
+                String name = LiteralTable.nameOf(next);
+                Belief belief = new Belief(name, prob(next));
+                next = nextKnown(next + 1);
+                return new AbstractMap.SimpleImmutableEntry<>(name, belief);
+            }
+        };
+    }
+
+    /**
+     * @param from the literal id to start from
+     * @return the smallest id not less than from that has a belief, -1 if there is none
+     */
+    private int nextKnown(int from){
+        int word = from >>> 6;
+        if(word >= known.length)
+            return -1;
+        long bits = known[word] & (-1L << from);
+        while (bits == 0){
+            if(++word == known.length)
+                return -1;
+            bits = known[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
     }
 
     /**
@@ -196,5 +535,3 @@ public class BeliefBaseImp implements Cloneable, Iterable<Map.Entry<String, Beli
     }
 
 }
-
-
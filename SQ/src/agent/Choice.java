@@ -40,6 +40,20 @@ public class Choice {
             return false;
     }
 
+    /**
+     * two choices are the same if they select the same intention and the same plan
+     */
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(o == null || getClass() != o.getClass()) return false;
+        Choice choice = (Choice) o;
+        return intentionChoice == choice.intentionChoice && planChoice == choice.planChoice;
+    }
 
+    @Override
+    public int hashCode(){
+        return 31 * intentionChoice + planChoice;
+    }
 
 }
@@ -2,8 +2,16 @@ package agent;
 
 import goalplantree.*;
 import mcts.BasicMCTSNode;
+import mcts.MCTSNode;
+import mcts.SearchMetrics;
+import mcts.TranspositionTable;
+import metrics.AgentMetrics;
+import metrics.DeliberationEvent;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 
 public class MCTSAgent extends AbstractAgent{
@@ -15,6 +23,37 @@ public class MCTSAgent extends AbstractAgent{
     // alpha and beta are set to 100 and 50 respectively by default
     int alpha = 100;
     int beta = 1;
+    // the number of search trees built in parallel, 1 by default
+    int threads = 1;
+    // the pool running the parallel searches
+    ForkJoinPool pool;
+    // true, if the parallel threads share one search tree; false, if each builds its own tree
+    boolean treeParallel = false;
+    // true, if the simulations of each iteration run in parallel
+    boolean leafParallel = false;
+    // true, if the search tree of the last cycle is reused when the agent reaches the state it expected, off by default
+    boolean reuseTree = false;
+    // the number of entries in the transposition table of the search tree, 0 (no transposition table) by default
+    int transpositions = 0;
+    // the transposition table of the searches, kept from one search to the next
+    TranspositionTable table;
+    // the time budget of each deliberation, null if the search runs alpha iterations
+    Duration budget;
+    // the number of iterations and simulations completed by the last deliberation
+    int lastIterations = 0;
+    int lastRollouts = 0;
+    int lastFakeRollouts = 0;
+    // the random stream seeding the searches, null if every search has its own random seed
+    Random random;
+    // the search tree of the last cycle, whose nodes are of the type searched by the agent
+    MCTSNode<?> tree;
+    // the choices executed since the last search, null if they could not all be executed
+    ArrayList<Choice> executed;
+    // the metrics of the searches published over JMX, null if they are not collected
+    AgentMetrics metrics;
+    // the JFR event of the current search and its start, if the search records its metrics
+    DeliberationEvent event;
+    long searchStart;
 
     /**
      * constructor
@@ -25,6 +64,9 @@ public class MCTSAgent extends AbstractAgent{
     public MCTSAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs){
         super(id, bs, gs);
     }
+    public MCTSAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs, ExecutionState state){
+        super(id, bs, gs, state);
+    }
     public MCTSAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs, HashMap<String, Double> vs){
         super(id, bs, gs, vs);
     }
@@ -45,18 +87,299 @@ public class MCTSAgent extends AbstractAgent{
         beta = b;
     }
 
+    /**
+     * seed the random streams of the searches, so that the agent makes the same choices in the same situation
+     * @param seed
+     */
+    public void setSeed(long seed){
+        random = new Random(seed);
+    }
+
+    /**
+     * @return the random stream of a new search
+     */
+    Random newRandom(){
+        return random == null ? new Random() : new Random(random.nextLong());
+    }
+
+    /**
+     * set the time budget of each deliberation. The search then runs iterations until the budget expires instead of
+     * running alpha iterations, and the best choice found so far is used.
+     * @param b the time budget, null to run alpha iterations
+     */
+    public void setBudget(Duration b){
+        budget = b;
+    }
+
+    /**
+     * deliberate with the given time budget instead of the budget of the agent
+     * @param b the time budget of this deliberation
+     * @return true, if there is a choice to execute
+     */
+    public boolean deliberate(Duration b){
+        Duration saved = budget;
+        budget = b;
+        try {
+            return deliberate();
+        }finally {
+            budget = saved;
+        }
+    }
+
+    /**
+     * @return the number of iterations to run, unbounded if the search stops at its deadline
+     */
+    int iterations(){
+        return budget == null ? alpha : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the deadline of a search that starts now, Long.MAX_VALUE if there is no time budget
+     */
+    long deadline(){
+        return budget == null ? Long.MAX_VALUE : System.nanoTime() + budget.toNanos();
+    }
+
+    /**
+     * record the work done by the last deliberation
+     * @param iterations the number of iterations completed
+     * @param rollouts the number of simulations run
+     */
+    void record(int iterations, int rollouts){
+        record(iterations, rollouts, 0);
+    }
+
+    /**
+     * record the work done by the last deliberation
+     * @param iterations the number of iterations completed
+     * @param rollouts the number of simulations run
+     * @param fakeRollouts the number of QSI estimations back-propagated as simulation results
+     */
+    void record(int iterations, int rollouts, int fakeRollouts){
+        lastIterations = iterations;
+        lastRollouts = rollouts;
+        lastFakeRollouts = fakeRollouts;
+    }
+
+    /**
+     * @return the number of iterations completed by the last deliberation
+     */
+    public int getLastIterations(){
+        return lastIterations;
+    }
+
+    /**
+     * @return the number of simulations run by the last deliberation
+     */
+    public int getLastRollouts(){
+        return lastRollouts;
+    }
+
+    /**
+     * @return the number of QSI estimations back-propagated as simulation results in the last deliberation
+     */
+    public int getLastFakeRollouts(){
+        return lastFakeRollouts;
+    }
+
+    /**
+     * set the number of search trees that are built in parallel from the current state (root-parallel MCTS)
+     * @param n
+     */
+    public void setThreads(int n){
+        if(pool != null)
+            pool.shutdown();
+        threads = Math.max(1, n);
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * shut down the pool of the parallel searches, after which the agent searches on one thread, and stop collecting
+     * the metrics of its searches. An agent with more than one thread or with metrics must be shut down once it is no
+     * longer used, as the threads of its pool are not released and its metrics stay registered over JMX.
+     */
+    public void shutdown(){
+        setThreads(1);
+        setMetrics(false);
+    }
+
+    /**
+     * set whether the parallel threads share one search tree (tree-parallel MCTS) or each build their own
+     * search tree (root-parallel MCTS)
+     * @param shared
+     */
+    public void setTreeParallel(boolean shared){
+        treeParallel = shared;
+    }
+
+    /**
+     * set whether the beta simulations of each iteration run in parallel (leaf-parallel MCTS)
+     * @param parallel
+     */
+    public void setLeafParallel(boolean parallel){
+        leafParallel = parallel;
+    }
+
+    /**
+     * set whether the search tree of the last cycle is re-rooted at the current state and searched further, instead of
+     * building a new search tree every cycle (the default). Reusing the tree changes the choices of the agent.
+     * @param reuse
+     */
+    public void setReuseTree(boolean reuse){
+        reuseTree = reuse;
+        tree = null;
+    }
+
+    /**
+     * set the number of entries in the transposition table, which lets the nodes of the same state share their
+     * statistics. There is no transposition table by default; using one changes the choices of the agent.
+     * @param n the number of entries, 0 to search without a transposition table
+     */
+    public void setTranspositions(int n){
+        transpositions = Math.max(0, n);
+    }
+
+    /**
+     * collect the metrics of the searches of this agent (see SearchMetrics) and publish them over JMX as
+     * "sq:type=AgentMetrics,name=" followed by the quoted name of the agent. The searches also record their metrics
+     * while a JFR recording enables DeliberationEvent, which is emitted for each search.
+     * @param enabled true to collect the metrics, false to stop and unregister them
+     */
+    public void setMetrics(boolean enabled){
+        if(enabled && metrics == null){
+            metrics = new AgentMetrics(name);
+            metrics.register();
+        }else if(!enabled && metrics != null){
+            metrics.unregister();
+            metrics = null;
+        }
+    }
+
+    /**
+     * @return the metrics of the searches of this agent, null if they are not collected
+     */
+    public AgentMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * start recording the metrics of a search, if they are collected or the JFR event is enabled
+     * @return the metrics of the search, null if it does not record them
+     */
+    SearchMetrics startMetrics(){
+        DeliberationEvent e = new DeliberationEvent();
+        if(metrics == null && !e.isEnabled())
+            return null;
+        e.begin();
+        event = e;
+        searchStart = System.nanoTime();
+        return new SearchMetrics();
+    }
+
+    /**
+     * add the metrics of the last search to the metrics of the agent, and emit its JFR event. The work done by the
+     * search must have been recorded (see record).
+     * @param m the metrics of the search, null if it did not record them
+     */
+    void endMetrics(SearchMetrics m){
+        if(m == null)
+            return;
+        long nanos = System.nanoTime() - searchStart;
+        if(metrics != null)
+            metrics.record(m, lastIterations, nanos);
+        DeliberationEvent e = event;
+        event = null;
+        e.end();
+        if(e.shouldCommit()){
+            e.set(name, lastIterations, m);
+            e.commit();
+        }
+    }
+
+    /**
+     * @param reused true, if the search continues the re-rooted tree of the last cycle, whose statistics are in the
+     *               table
+     * @return the transposition table of a search, which is cleared unless the tree is reused; null if there is none
+     */
+    TranspositionTable table(boolean reused){
+        if(transpositions == 0)
+            table = null;
+        else if(table == null || table.capacity() != TranspositionTable.size(transpositions))
+            table = new TranspositionTable(transpositions);
+        else if(!reused)
+            table.clear();
+        return table;
+    }
+
+    /**
+     * @return a copy of the current intentions, which is not changed when the agent executes its choices
+     */
+    GoalPlanTree[] snapshot(){
+        GoalPlanTree[] gpts = new GoalPlanTree[intentions.size()];
+        for(int i = 0; i < gpts.length; i++){
+            gpts[i] = intentions.get(i).clone();
+        }
+        return gpts;
+    }
+
+    /**
+     * @param state a copy of the current intentions
+     * @param <N> the type of the nodes searched by the agent, which is the type of the nodes it keeps
+     * @return the search tree of the last cycle re-rooted at the current state, null if it cannot be reused
+     */
+    @SuppressWarnings("unchecked")
+    <N extends MCTSNode<N>> N reuse(GoalPlanTree[] state){
+        N root = null;
+        if(reuseTree && tree != null && executed != null)
+            root = ((N) tree).reroot(executed, state, bb.clone());
+        tree = null;
+        executed = null;
+        return root;
+    }
+
+    /**
+     * keep the search tree of this cycle and the choices to execute, so that the tree can be reused in the next cycle
+     * @param root the root of the search tree
+     */
+    void keep(MCTSNode<?> root){
+        if(reuseTree){
+            tree = root;
+            executed = new ArrayList<>(this.choices);
+        }
+    }
+
     @Override
     public boolean deliberate() {
-        BasicMCTSNode root = new BasicMCTSNode(this.intentions, this.bb);
+        GoalPlanTree[] state = snapshot();
+        // reuse the search tree of the last cycle if possible
+        BasicMCTSNode root = reuse(state);
+        boolean reused = root != null;
+        if(root == null)
+            root = new BasicMCTSNode(state, this.bb.clone(), newRandom());
+        root.setTranspositionTable(table(reused));
+        root.setDeadline(deadline());
+        SearchMetrics m = startMetrics();
+        root.setMetrics(m);
         long start = System.currentTimeMillis();
         // run mcts
-        root.run(alpha, beta);
+        if(threads > 1 && leafParallel)
+            root.setLeafParallel(pool);
+        if(threads > 1 && treeParallel)
+            root.runTreeParallel(iterations(), beta, threads, pool);
+        else if(threads > 1)
+            root.run(iterations(), beta, threads, pool);
+        else
+            root.run(iterations(), beta);
+        record(root.getIterations(), root.getRollouts());
+        endMetrics(m);
 
         // get the best choice
         ArrayList<Choice> cs = root.bestChoice();
 
         if(cs.size() > 0){
-            this.choices = cs;
+            // the choices are consumed by the execution, so the ones of the search tree are copied
+            this.choices = new ArrayList<>(cs);
+            keep(root);
             return true;
         }
         return false;
@@ -103,11 +426,13 @@ public class MCTSAgent extends AbstractAgent{
         // get the intended gpt
         GoalPlanTree gpt = intentions.get(choice.intentionChoice);
         System.out.println("cc: " + gpt.getCurrentStep().getName());
+        // the agent is not in the state the search expected
+        executed = null;
 
         // update the intention
         gpt.fail();
         // if the top-level goal fails
-        if(gpt.getTlg().getStatus().equals(TreeNode.Status.FAILURE)){
+        if(state.getStatus(gpt.getTlg()).equals(TreeNode.Status.FAILURE)){
             // remove it from the agent's intention
             //intentions.remove(choice.intentionChoice);
         }
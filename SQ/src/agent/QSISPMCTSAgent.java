@@ -2,6 +2,7 @@ package agent;
 
 import goalplantree.*;
 import mcts.QSIMCTSNode;
+import mcts.SearchMetrics;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -17,6 +18,9 @@ public class QSISPMCTSAgent extends MCTSAgent {
     public QSISPMCTSAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs){
         super(id, bs, gs);
     }
+    public QSISPMCTSAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs, ExecutionState state){
+        super(id, bs, gs, state);
+    }
     public QSISPMCTSAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs, HashMap<String, Double> vs){
         super(id, bs, gs, vs);
     }
@@ -25,9 +29,27 @@ public class QSISPMCTSAgent extends MCTSAgent {
     public boolean deliberate() {
 
 
-        QSIMCTSNode root = new QSIMCTSNode(this.intentions, this.bb);
+        GoalPlanTree[] state = snapshot();
+        // reuse the search tree of the last cycle if possible
+        QSIMCTSNode root = reuse(state);
+        boolean reused = root != null;
+        if(root == null)
+            root = new QSIMCTSNode(state, this.bb.clone(), newRandom());
+        root.setTranspositionTable(table(reused));
+        root.setDeadline(deadline());
+        SearchMetrics m = startMetrics();
+        root.setMetrics(m);
         long start = System.currentTimeMillis();
-        root.run(alpha, beta, 0.5, 0.1);
+        if(threads > 1 && leafParallel)
+            root.setLeafParallel(pool);
+        if(threads > 1 && treeParallel)
+            root.runTreeParallel(iterations(), beta, 0.5, 0.1, threads, pool);
+        else if(threads > 1)
+            root.run(iterations(), beta, 0.5, 0.1, threads, pool);
+        else
+            root.run(iterations(), beta, 0.5, 0.1);
+        record(root.getIterations(), root.getRollouts(), root.getFakeRollouts());
+        endMetrics(m);
 
         /**
          * compare the new result with the existing choices
@@ -46,6 +68,7 @@ public class QSISPMCTSAgent extends MCTSAgent {
                 if(cs.isActionExecution())
                     break;
             }
+            keep(root);
             return true;
         }
         return false;
@@ -76,10 +99,9 @@ public class QSISPMCTSAgent extends MCTSAgent {
                     PlanNode pl;
                     if (c.planChoice < pls.length) {
                         pl = pls[c.planChoice];
-                        Literal[] context = pl.getPrec();
+                        Condition context = pl.getPrecondition();
                         if (cbb.evaluate(context) == 1) {
-                            gpt.getBacktrackList().add(goal);
-                            gpt.setCurrentStep(pl.getPlanbody()[0]);
+                            gpt.setCursor(gpt.getCursor().select(c.planChoice));
                         } else {
                             System.err.println("Simulation Error: context condition does not hold");
                             break;
@@ -99,19 +121,11 @@ public class QSISPMCTSAgent extends MCTSAgent {
                 TreeNode current = gpt.getCurrentStep();
                 if(current instanceof ActionNode){
                     ActionNode act = (ActionNode) current;
-                    Literal[] prec = act.getPrec();
+                    Condition prec = act.getPrecondition();
                     if(cbb.evaluate(prec) == 1){
-                        Literal[] post = act.getPostc();
+                        Condition post = act.getPostcondition();
                         cbb.update(post);
-                        current = act.getNext();
-                        while (current == null){
-                            if(gpt.getBacktrackList().size() == 0){
-                                break;
-                            }
-                            current = gpt.getBacktrackList().remove(gpt.getBacktrackList().size()-1);
-                            current = current.getNext();
-                        }
-                        gpt.setCurrentStep(current);
+                        gpt.setCursor(gpt.getCursor().next());
                     }
                     else {
                         System.err.println("Simulation Error: the selected action cannot be executed");
@@ -3,6 +3,7 @@ package agent;
 import goalplantree.*;
 import mcts.BasicMCTSNode;
 import mcts.SPMCTSNode;
+import mcts.SearchMetrics;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -18,6 +19,9 @@ public class SPMCTSAgent extends MCTSAgent {
     public SPMCTSAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs){
         super(id, bs, gs);
     }
+    public SPMCTSAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs, ExecutionState state){
+        super(id, bs, gs, state);
+    }
     public SPMCTSAgent(String id, ArrayList<Belief> bs, ArrayList<GoalNode> gs, HashMap<String, Double> vs){
         super(id, bs, gs, vs);
     }
@@ -28,10 +32,28 @@ public class SPMCTSAgent extends MCTSAgent {
         /**
          * run MCTS alpha iteration, each with beta iterations to generate an MCTS search tree
          */
-        SPMCTSNode root = new SPMCTSNode(this.intentions, this.bb);
+        GoalPlanTree[] state = snapshot();
+        // reuse the search tree of the last cycle if possible
+        BasicMCTSNode root = reuse(state);
+        boolean reused = root != null;
+        if(root == null)
+            root = new SPMCTSNode(state, this.bb.clone(), newRandom());
+        root.setTranspositionTable(table(reused));
+        root.setDeadline(deadline());
+        SearchMetrics m = startMetrics();
+        root.setMetrics(m);
         long start = System.currentTimeMillis();
         // run mcts
-        root.run(alpha, beta);
+        if(threads > 1 && leafParallel)
+            root.setLeafParallel(pool);
+        if(threads > 1 && treeParallel)
+            root.runTreeParallel(iterations(), beta, threads, pool);
+        else if(threads > 1)
+            root.run(iterations(), beta, threads, pool);
+        else
+            root.run(iterations(), beta);
+        record(root.getIterations(), root.getRollouts());
+        endMetrics(m);
         System.out.println("time: " + (System.currentTimeMillis() - start) + "ms");
 
 
@@ -52,7 +74,7 @@ public class SPMCTSAgent extends MCTSAgent {
             b = a;
         }
 
-        //System.out.println("visits:" + root.getStatistic().nVisits);
+        //System.out.println("visits:" + root.getStatistic().getVisits());
 
         System.out.println("best: " + b);
 
@@ -65,6 +87,7 @@ public class SPMCTSAgent extends MCTSAgent {
                 if(cs.isActionExecution())
                     break;
             }
+            keep(root);
             return true;
         }
         return false;
@@ -104,13 +127,12 @@ public class SPMCTSAgent extends MCTSAgent {
                     if(c.planChoice < pls.length){
                         pl = pls[c.planChoice];
                         // get its context condition
-                        Literal[] context = pl.getPrec();
+                        Condition context = pl.getPrecondition();
                         // check if its context condition holds
                         if(cbb.evaluate(context) == 1){
-                            // add this subgoal to the backtrack list
-                            gpt.getBacktrackList().add(goal);
-                            // set the first step in this plan as the current step
-                            gpt.setCurrentStep(pl.getPlanbody()[0]);
+                            // add this subgoal to the backtrack list, and set the first step in this plan as the
+                            // current step
+                            gpt.setCursor(gpt.getCursor().select(c.planChoice));
                         }
                         // if it does not hold
                         else {
@@ -141,27 +163,14 @@ public class SPMCTSAgent extends MCTSAgent {
                 if(current instanceof ActionNode){
                     ActionNode act = (ActionNode) current;
                     // get its precondition
-                    Literal[] prec = act.getPrec();
+                    Condition prec = act.getPrecondition();
                     // check if its precondition holds
                     if(cbb.evaluate(prec) == 1){
                         // apply its postcondition
-                        Literal[] post = act.getPostc();
+                        Condition post = act.getPostcondition();
                         cbb.update(post);
-                        // get the next step
-                        current = act.getNext();
-                        // if it is the last step in this plan
-                        while (current == null){
-                            // if the top-level goal has been achieved
-                            if(gpt.getBacktrackList().size() == 0){
-                                break;
-                            }
-                            // get the last subgoal in the backtrack list
-                            current = gpt.getBacktrackList().remove(gpt.getBacktrackList().size()-1);
-                            // get its next step
-                            current = current.getNext();
-                        }
-                        // set current step
-                        gpt.setCurrentStep(current);
+                        // move to the next step, backtracking to the last subgoals if it is the last step in this plan
+                        gpt.setCursor(gpt.getCursor().next());
                     }
                     // if this action cannot be executed
                     else {
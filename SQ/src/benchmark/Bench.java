@@ -0,0 +1,113 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A small measurement harness for the benchmarks: an operation is run repeatedly for a warm-up period and then for a
+ * measurement period, and its throughput and the bytes it allocates per call are reported. The results of the
+ * operation are consumed so that the JIT compiler cannot remove the calls.
+ */
+public final class Bench {
+
+    /**
+     * a benchmarked operation
+     */
+    public interface Op {
+        /**
+         * @return a value depending on the result of the operation (e.g., its hash), which is consumed by the harness
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * the result of a benchmark
+     */
+    public static final class Result {
+        public final String name;
+        // the number of calls per second
+        public final double throughput;
+        // the number of bytes allocated per call
+        public final double allocation;
+        // the number of calls measured
+        public final long calls;
+
+        Result(String name, double throughput, double allocation, long calls){
+            this.name = name;
+            this.throughput = throughput;
+            this.allocation = allocation;
+            this.calls = calls;
+        }
+
+        /**
+         * @return the allocation rate in MB per second
+         */
+        public double allocationRate(){
+            return throughput * allocation / (1024 * 1024);
+        }
+
+        @Override
+        public String toString(){
+            return String.format("%-28s %14.1f ops/s %12.1f B/op %10.1f MB/s", name, throughput, allocation,
+                    allocationRate());
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // the results are consumed here
+    private static volatile long sink;
+
+    private final long warmup;
+    private final long time;
+
+    /**
+     * @param warmup the warm-up period in milliseconds
+     * @param time the measurement period in milliseconds
+     */
+    public Bench(long warmup, long time){
+        this.warmup = warmup * 1000000;
+        this.time = time * 1000000;
+    }
+
+    /**
+     * @param name the name of the benchmark
+     * @param op the operation
+     * @return the throughput and allocation of the operation
+     */
+    public Result measure(String name, Op op) throws Exception {
+        run(op, warmup);
+        long thread = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long calls = run(op, time);
+        long elapsed = System.nanoTime() - start;
+        long allocated = bean.getThreadAllocatedBytes(thread) - before;
+        return new Result(name, calls * 1e9 / elapsed, (double) allocated / calls, calls);
+    }
+
+    /**
+     * run the operation for the given period, reading the clock once per batch of calls. The batches grow as long as
+     * they take less than a millisecond.
+     * @return the number of calls
+     */
+    private static long run(Op op, long period) throws Exception {
+        long calls = 0;
+        int batch = 1;
+        long h = 0;
+        long now = System.nanoTime();
+        long end = now + period;
+        while (now - end < 0){
+            for(int i = 0; i < batch; i++){
+                h ^= op.run();
+            }
+            calls += batch;
+            long last = now;
+            now = System.nanoTime();
+            if(now - last < 1000000 && batch < (1 << 20))
+                batch <<= 1;
+        }
+        sink = h;
+        return calls;
+    }
+}
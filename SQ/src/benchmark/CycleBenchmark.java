@@ -0,0 +1,135 @@
+package benchmark;
+
+import agent.Belief;
+import agent.SPMCTSAgent;
+import environment.SynthEnvironment;
+import goalplantree.ExecutionState;
+import goalplantree.GoalNode;
+import goalplantree.GptModel;
+import goalplantree.Literal;
+import xml2bdi.BinaryReader;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Compares the sequential and the parallel cycles of an environment with many agents (see
+ * AbstractEnvironment.setThreads). The SP-MCTS agents pursue the top-level goals of the same GPT file, agent i the goal
+ * i modulo the number of goals, each with its own state, reused search tree and transposition table, and the
+ * environment runs a number of cycles. For each mode it reports the mean time of a cycle, the mean sum of the
+ * deliberations of the agents in a cycle, and the mean of the slowest deliberation of a cycle, which bounds the time of
+ * a parallel cycle from below. Both modes are run once to warm up before they are measured.
+ *
+ * usage: CycleBenchmark [options] GPT file
+ *  -agents n     the number of agents, 20 by default
+ *  -cycles n     the number of cycles of each mode, 10 by default
+ *  -threads n    the number of threads of the parallel cycles, the number of processors by default
+ *  -alpha n      the number of iterations of each deliberation, 100 by default
+ */
+public class CycleBenchmark {
+
+    /**
+     * an agent recording the time of its last deliberation
+     */
+    static class TimedAgent extends SPMCTSAgent {
+        volatile long nanos;
+
+        TimedAgent(String id, ArrayList<Belief> bs, GoalNode goal, ExecutionState state){
+            super(id, bs, new ArrayList<>(Collections.singletonList(goal)), state);
+        }
+
+        @Override
+        public boolean deliberate(){
+            long start = System.nanoTime();
+            boolean executable = super.deliberate();
+            nanos = System.nanoTime() - start;
+            return executable;
+        }
+    }
+
+    public static void main(String[] args){
+        int agents = 20;
+        int cycles = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int alpha = 100;
+        String file = null;
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "-agents": agents = Integer.parseInt(args[++i]); break;
+                case "-cycles": cycles = Integer.parseInt(args[++i]); break;
+                case "-threads": threads = Integer.parseInt(args[++i]); break;
+                case "-alpha": alpha = Integer.parseInt(args[++i]); break;
+                default: file = args[i];
+            }
+        }
+        if(file == null){
+            System.out.println("ERROR: no GPT file specified!");
+            return;
+        }
+        GptModel model = BinaryReader.read(file);
+        if(model == null){
+            System.out.println("ERROR: unable to open GPT file: " + file);
+            return;
+        }
+
+        PrintStream out = System.out;
+        // the agents and the environment print their progress on the standard output
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            // warm up with the cycles of both modes
+            run(model, agents, cycles, 1, alpha, "warm-up");
+            run(model, agents, cycles, threads, alpha, "warm-up");
+            out.println(run(model, agents, cycles, 1, alpha, "sequential"));
+            out.println(run(model, agents, cycles, threads, alpha, "parallel x" + threads));
+        }finally {
+            System.setOut(out);
+        }
+    }
+
+    private static String run(GptModel model, int n, int cycles, int threads, int alpha, String mode){
+        ArrayList<Belief> bs = new ArrayList<>();
+        for(Literal l : model.getLiterals()){
+            bs.add(new Belief(l.getName(), l.getState() ? 1 : 0));
+        }
+        SynthEnvironment env = new SynthEnvironment(new ArrayList<>(model.getLiterals()), 0);
+        ArrayList<TimedAgent> agents = new ArrayList<>();
+        for(int i = 0; i < n; i++){
+            TimedAgent agent = new TimedAgent("a" + i, bs, model.getTlgs().get(i % model.getTlgs().size()),
+                    model.newState());
+            agent.setSeed(i);
+            agent.setAlpha(alpha);
+            agent.setReuseTree(true);
+            agent.setTranspositions(1 << 16);
+            agents.add(agent);
+            env.addAgent(agent);
+        }
+        env.setThreads(threads);
+
+        long time = 0;
+        long sum = 0;
+        long slowest = 0;
+        int run = 0;
+        while (run < cycles){
+            for(TimedAgent a : agents){
+                a.nanos = 0;
+            }
+            long start = System.nanoTime();
+            boolean running = env.run();
+            time += System.nanoTime() - start;
+            run++;
+            long max = 0;
+            for(TimedAgent a : agents){
+                sum += a.nanos;
+                max = Math.max(max, a.nanos);
+            }
+            slowest += max;
+            if(!running)
+                break;
+        }
+        env.setThreads(1);
+        return String.format("%-16s %4d agents %4d cycles: %10.2f ms/cycle, deliberations %10.2f ms/cycle, slowest %8.2f ms",
+                mode, n, run, time / 1e6 / run, sum / 1e6 / run, slowest / 1e6 / run);
+    }
+}
@@ -0,0 +1,239 @@
+package benchmark;
+
+import agent.*;
+import goalplantree.*;
+import mcts.RolloutEngine;
+import mcts.SearchContext;
+import mcts.Transitions;
+import simulation.ConflictsCalculator;
+import simulation.Simulator;
+import xml2bdi.XMLReader;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Benchmarks of the hot paths of the SQ scheduler on the shipped GPT corpora: the rollouts, the transitions and the
+ * expansion of the MCTS search, the copies and evaluations of the agent's state, the QSI conflict estimations, and a
+ * full deliberation of the SP-MCTS and QSI agents.
+ *
+ * usage: HotPathBenchmark [options] [corpus directories]
+ *  -files n      the number of GPT files of each corpus, 3 by default
+ *  -warmup ms    the warm-up period of each benchmark, 1000 by default
+ *  -time ms      the measurement period of each benchmark, 2000 by default
+ *  -sims n       the number of simulations of the QSI pre-computation, 1000 by default
+ *  -only a,b     only run the benchmarks whose names start with one of these prefixes
+ * The corpora are ../GPTs/d4 and ../GPTs/d5 by default. Every search and every random choice of the benchmarks uses a
+ * stream seeded with SEED.
+ *
+ * Each benchmark reports its throughput and the bytes allocated per call, and the allocation rate derived from them.
+ */
+public class HotPathBenchmark {
+
+    static final long SEED = 42;
+
+    public static void main(String[] args) throws Exception {
+        int files = 3;
+        long warmup = 1000;
+        long time = 2000;
+        int sims = 1000;
+        String[] only = null;
+        ArrayList<String> corpora = new ArrayList<>();
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "-files": files = Integer.parseInt(args[++i]); break;
+                case "-warmup": warmup = Long.parseLong(args[++i]); break;
+                case "-time": time = Long.parseLong(args[++i]); break;
+                case "-sims": sims = Integer.parseInt(args[++i]); break;
+                case "-only": only = args[++i].split(","); break;
+                default: corpora.add(args[i]);
+            }
+        }
+        if(corpora.isEmpty()){
+            corpora.add("../GPTs/d4");
+            corpora.add("../GPTs/d5");
+        }
+
+        Bench bench = new Bench(warmup, time);
+        PrintStream out = System.out;
+        for(String corpus : corpora){
+            for(File file : gptFiles(corpus, files)){
+                out.println("# " + file.getPath());
+                HotPathBenchmark b = new HotPathBenchmark(file.getPath(), sims);
+                for(Map.Entry<String, Bench.Op> op : b.operations().entrySet()){
+                    if(selected(op.getKey(), only))
+                        out.println(bench.measure(op.getKey(), op.getValue()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the first n GPT files of the corpus in numerical order
+     */
+    static List<File> gptFiles(String corpus, int n){
+        File[] fs = new File(corpus).listFiles((dir, name) -> name.endsWith(".xml"));
+        if(fs == null)
+            throw new IllegalArgumentException("no GPT files in " + corpus);
+        Arrays.sort(fs, Comparator.comparingInt((File f) -> number(f.getName())).thenComparing(File::getName));
+        return Arrays.asList(fs).subList(0, Math.min(n, fs.length));
+    }
+
+    private static int number(String name){
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - 4));
+        }catch (NumberFormatException e){
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static boolean selected(String name, String[] only){
+        if(only == null)
+            return true;
+        for(String prefix : only){
+            if(name.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    // the initial state of the GPT file
+    private final ArrayList<Belief> percepts = new ArrayList<>();
+    private final ArrayList<GoalNode> tlgs;
+    // the state of the run of the goals, with their QSI totals
+    private final ExecutionState state;
+    private final GoalPlanTree[] gpts;
+    private final BeliefBaseImp bb;
+    // the choices of a complete simulation from the initial state
+    private final ArrayList<Choice> path;
+    // the preconditions of all plans and actions
+    private final ArrayList<Condition> conditions = new ArrayList<>();
+
+    HotPathBenchmark(String file, int sims){
+        XMLReader reader = new XMLReader(file);
+        tlgs = reader.getTlgs();
+        state = reader.getModel().newState();
+        for(Literal l : reader.getLiterals()){
+            percepts.add(new Belief(l.getName(), l.getState() ? 1 : 0));
+        }
+        bb = new BeliefBaseImp(percepts);
+        gpts = new GoalPlanTree[tlgs.size()];
+        for(int i = 0; i < gpts.length; i++){
+            gpts[i] = new GoalPlanTree(tlgs.get(i), state);
+            collect(tlgs.get(i));
+        }
+        SearchContext ctx = new SearchContext(gpts, bb, new Random(SEED));
+        RolloutEngine.get().rollOut(ctx, gpts, bb, new ArrayList<>());
+        path = ctx.getBestChoices();
+
+        // the QSI of the goals
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Simulator simulator = new Simulator();
+            simulator.setSeed(SEED);
+            for(GoalNode goal : tlgs){
+                simulator.runSimulation(sims, goal, state);
+            }
+        }finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * collect the preconditions of the plans and actions in a goal-plan tree
+     */
+    private void collect(GoalNode goal){
+        for(PlanNode pl : goal.getPlans()){
+            conditions.add(pl.getPrecondition());
+            for(TreeNode step : pl.getPlanbody()){
+                if(step instanceof GoalNode)
+                    collect((GoalNode) step);
+                else
+                    conditions.add(((ActionNode) step).getPrecondition());
+            }
+        }
+    }
+
+    /**
+     * @return the benchmarked operations by name
+     */
+    Map<String, Bench.Op> operations(){
+        Map<String, Bench.Op> ops = new LinkedHashMap<>();
+
+        SearchContext ctx = new SearchContext(gpts, bb, new Random(SEED));
+        ArrayList<Choice> none = new ArrayList<>();
+        ops.put("rollOut", () -> Double.doubleToRawLongBits(RolloutEngine.get().rollOut(ctx, gpts, bb, none)));
+
+        ops.put("biUpdate(path)", () -> {
+            GoalPlanTree[] sgpts = cloneAll(gpts);
+            BeliefBaseImp sbb = bb.clone();
+            for(Choice c : path){
+                Transitions.biUpdate(c, sgpts, sbb);
+            }
+            return sbb.zobrist();
+        });
+
+        ops.put("getPosChoices", () -> {
+            long n = 0;
+            for(GoalNode goal : tlgs){
+                n += Transitions.getPosChoices(goal, bb).length;
+            }
+            return n;
+        });
+
+        ops.put("GoalPlanTree.clone", () -> System.identityHashCode(cloneAll(gpts)));
+
+        ops.put("BeliefBaseImp.clone", () -> System.identityHashCode(bb.clone()));
+
+        ops.put("BeliefBaseImp.evaluate", () -> {
+            double total = 0;
+            for(Condition condition : conditions){
+                total += bb.evaluate(condition);
+            }
+            return Double.doubleToRawLongBits(total);
+        });
+
+        // a new calculator in every call computes the QSI of the intentions and their conflicts, while the calculator
+        // of a search finds them in its cache for the copies of intentions at the same positions
+        ConflictsCalculator cc = new ConflictsCalculator(new Random(SEED));
+        if(gpts.length > 1){
+            int m = Math.max(2, gpts.length / 2);
+            ops.put("probConf2Ints", () -> Double.doubleToRawLongBits(new ConflictsCalculator(new Random(SEED))
+                    .probConf2Ints(gpts[0].clone(), gpts[1].clone())));
+            ops.put("probConf2Ints(cached)", () -> Double.doubleToRawLongBits(cc.probConf2Ints(gpts[0].clone(), gpts[1].clone())));
+            ops.put("probConfGPT2", () -> Double.doubleToRawLongBits(new ConflictsCalculator(new Random(SEED))
+                    .probConfGPT2(cloneAll(gpts), m, 0.5)));
+            ops.put("probConfGPT2(cached)", () -> Double.doubleToRawLongBits(cc.probConfGPT2(cloneAll(gpts), m, 0.5)));
+        }
+
+        // a new agent in every call, as an agent keeps the rest of its best plan for the next cycle
+        ops.put("deliberate(SP-MCTS)", () -> quietly(new SPMCTSAgent("SPMCTS-Agent", percepts, tlgs, new ExecutionState(state))));
+        ops.put("deliberate(QSI-SP-MCTS)", () -> quietly(new QSISPMCTSAgent("QSISPMCTS-Agent", percepts, tlgs, new ExecutionState(state))));
+        return ops;
+    }
+
+    /**
+     * deliberate with a fixed seed without printing the progress of the agent
+     */
+    private static long quietly(MCTSAgent agent){
+        agent.setSeed(SEED);
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return agent.deliberate() ? agent.getLastRollouts() : 0;
+        }finally {
+            System.setOut(out);
+        }
+    }
+
+    private static GoalPlanTree[] cloneAll(GoalPlanTree[] gpts){
+        GoalPlanTree[] copies = new GoalPlanTree[gpts.length];
+        for(int i = 0; i < gpts.length; i++){
+            copies[i] = gpts[i].clone();
+        }
+        return copies;
+    }
+}
@@ -0,0 +1,184 @@
+package benchmark;
+
+import goalplantree.GptModel;
+import xml2bdi.BinaryReader;
+import xml2bdi.StAXReader;
+import xml2bdi.XMLReader;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the loaders of the GPT files on the shipped corpora: the document-based XMLReader (JDOM), the streaming
+ * StAXReader and, if the corpus has been converted (see xml2bdi.BinaryWriter), the BinaryReader. For each corpus and
+ * loader it reports the throughput of loading the whole corpus and the bytes allocated to do it, the heap retained by
+ * the loaded models, and for the streaming loader the parse time of each file, the bytes it allocates and the peak
+ * heap usage while reading it (the peaks of the heap pools are reset before each file). The binary files are measured both when they are only opened ("binary open", which maps them and checks their
+ * header) and when their trees are built.
+ *
+ * usage: LoaderBenchmark [options] [corpus directories]
+ *  -files n      the number of GPT files of each corpus, all of them by default
+ *  -warmup ms    the warm-up period of each benchmark, 1000 by default
+ *  -time ms      the measurement period of each benchmark, 2000 by default
+ * The corpora are ../GPTs/d4 and ../GPTs/d5 by default.
+ */
+public class LoaderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = Integer.MAX_VALUE;
+        long warmup = 1000;
+        long time = 2000;
+        ArrayList<String> corpora = new ArrayList<>();
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "-files": files = Integer.parseInt(args[++i]); break;
+                case "-warmup": warmup = Long.parseLong(args[++i]); break;
+                case "-time": time = Long.parseLong(args[++i]); break;
+                default: corpora.add(args[i]);
+            }
+        }
+        if(corpora.isEmpty()){
+            corpora.add("../GPTs/d4");
+            corpora.add("../GPTs/d5");
+        }
+
+        Bench bench = new Bench(warmup, time);
+        for(String corpus : corpora){
+            List<File> fs = HotPathBenchmark.gptFiles(corpus, files);
+            System.out.println("# " + corpus + " (" + fs.size() + " files)");
+            System.out.println(bench.measure("jdom", () -> loadJdom(fs).size()));
+            System.out.println(bench.measure("stax", () -> loadStax(fs).size()));
+            System.out.println(String.format("%-28s %14.1f KB", "jdom retained", retained(() -> loadJdom(fs)) / 1024.0));
+            System.out.println(String.format("%-28s %14.1f KB", "stax retained", retained(() -> loadStax(fs)) / 1024.0));
+            List<File> bs = binaryFiles(fs);
+            if(bs.size() == fs.size()){
+                System.out.println(bench.measure("binary open", () -> openBinary(bs)));
+                System.out.println(bench.measure("binary", () -> loadBinary(bs).size()));
+                System.out.println(String.format("%-28s %14.1f KB", "binary retained", retained(() -> loadBinary(bs)) / 1024.0));
+            }
+            // the cost of reading each file with the streaming loader
+            long thread = Thread.currentThread().getId();
+            long parse = 0;
+            long maxParse = 0;
+            long allocated = 0;
+            long peak = 0;
+            for(File f : fs){
+                resetPeaks();
+                long before = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                new StAXReader(f.getPath());
+                long nanos = System.nanoTime() - start;
+                allocated += threads.getThreadAllocatedBytes(thread) - before;
+                parse += nanos;
+                maxParse = Math.max(maxParse, nanos);
+                peak = Math.max(peak, peakHeap());
+            }
+            System.out.println(String.format("%-28s %14.3f ms/file (max %.3f ms) %.1f KB/file peak heap %.1f MB",
+                    "stax parse", parse / 1e6 / fs.size(), maxParse / 1e6, allocated / 1024.0 / fs.size(),
+                    peak / (1024.0 * 1024.0)));
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile List<GptModel> kept;
+
+    private interface Loader {
+        List<GptModel> load();
+    }
+
+    private static List<GptModel> loadJdom(List<File> fs){
+        ArrayList<GptModel> models = new ArrayList<>();
+        for(File f : fs){
+            models.add(new XMLReader(f.getPath()).getModel());
+        }
+        return models;
+    }
+
+    private static List<GptModel> loadStax(List<File> fs){
+        ArrayList<GptModel> models = new ArrayList<>();
+        for(File f : fs){
+            models.add(new StAXReader(f.getPath()).getModel());
+        }
+        return models;
+    }
+
+    /**
+     * @return the binary files converted from the XML files, which may not all exist
+     */
+    private static List<File> binaryFiles(List<File> fs){
+        ArrayList<File> bs = new ArrayList<>();
+        for(File f : fs){
+            String path = f.getPath();
+            File b = new File(path.substring(0, path.length() - ".xml".length()) + BinaryReader.EXTENSION);
+            if(b.isFile())
+                bs.add(b);
+        }
+        return bs;
+    }
+
+    /**
+     * @return the total number of nodes of the files, which are opened without building their trees
+     */
+    private static long openBinary(List<File> fs){
+        long nodes = 0;
+        for(File f : fs){
+            nodes += new BinaryReader(f.getPath()).getNodeCount();
+        }
+        return nodes;
+    }
+
+    private static List<GptModel> loadBinary(List<File> fs){
+        ArrayList<GptModel> models = new ArrayList<>();
+        for(File f : fs){
+            models.add(new BinaryReader(f.getPath()).getModel());
+        }
+        return models;
+    }
+
+    /**
+     * @return the heap used by the models of the loader after a collection, in bytes
+     */
+    private static long retained(Loader loader){
+        Runtime rt = Runtime.getRuntime();
+        gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        // the models are kept reachable through a field while the heap is measured
+        kept = loader.load();
+        gc();
+        long after = rt.totalMemory() - rt.freeMemory();
+        kept = null;
+        return after - before;
+    }
+
+    private static void resetPeaks(){
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+            if(pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * @return the sum of the peak usages of the heap memory pools since they were reset, which includes the heap used
+     * before
+     */
+    private static long peakHeap(){
+        long peak = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+            if(pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    private static void gc(){
+        for(int i = 0; i < 3; i++){
+            System.gc();
+        }
+    }
+}
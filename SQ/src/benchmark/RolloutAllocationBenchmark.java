@@ -0,0 +1,86 @@
+package benchmark;
+
+import agent.Belief;
+import agent.BeliefBaseImp;
+import agent.Choice;
+import goalplantree.GoalNode;
+import goalplantree.GoalPlanTree;
+import goalplantree.Literal;
+import mcts.RolloutEngine;
+import mcts.SearchContext;
+import xml2bdi.XMLReader;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Counts the bytes allocated by the rollouts of the MCTS simulations.
+ *
+ * usage: RolloutAllocationBenchmark gptFile [rollouts]
+ *
+ * The rollouts run from the initial state of the given goal-plan trees after a warm-up, and the bytes allocated by the
+ * current thread are reported per rollout. The best result of the search is reset before every rollout, so that every
+ * rollout also pays for building its list of choices; the bytes without this are reported separately.
+ */
+public class RolloutAllocationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if(args.length == 0){
+            System.out.println("ERROR: no GPT file specified!");
+            return;
+        }
+        int rollouts = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        XMLReader reader = new XMLReader(args[0]);
+        ArrayList<Literal> literals = reader.getLiterals();
+        ArrayList<GoalNode> tlgs = reader.getTlgs();
+
+        // the initial state
+        ArrayList<Belief> bs = new ArrayList<>();
+        for(Literal l : literals){
+            bs.add(new Belief(l.getName(), l.getState() ? 1 : 0));
+        }
+        BeliefBaseImp bb = new BeliefBaseImp(bs);
+        GoalPlanTree[] gpts = new GoalPlanTree[tlgs.size()];
+        for(int i = 0; i < gpts.length; i++){
+            gpts[i] = new GoalPlanTree(tlgs.get(i));
+        }
+        ArrayList<Choice> choices = new ArrayList<>();
+        SearchContext ctx = new SearchContext(gpts, bb, new Random(0));
+        RolloutEngine engine = RolloutEngine.get();
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // warm-up
+        for(int i = 0; i < rollouts; i++){
+            engine.rollOut(ctx, gpts, bb, choices);
+        }
+
+        // the best result is already reached, so the rollouts do not build their choices
+        double total = 0;
+        long before = bean.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for(int i = 0; i < rollouts; i++){
+            total += engine.rollOut(ctx, gpts, bb, choices);
+        }
+        long time = System.nanoTime() - start;
+        long steady = bean.getThreadAllocatedBytes(thread) - before;
+
+        // every rollout is the new best
+        SearchContext fresh = new SearchContext(gpts, bb, new Random(0));
+        before = bean.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < rollouts; i++){
+            fresh.reset();
+            engine.rollOut(fresh, gpts, bb, choices);
+        }
+        long best = bean.getThreadAllocatedBytes(thread) - before;
+
+        System.out.println("rollouts: " + rollouts);
+        System.out.println("average utility: " + total / rollouts);
+        System.out.println("time per rollout: " + time / rollouts + " ns");
+        System.out.println("bytes per rollout: " + (double) steady / rollouts);
+        System.out.println("bytes per new best rollout: " + (double) best / rollouts);
+    }
+}
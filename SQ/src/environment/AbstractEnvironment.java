@@ -4,28 +4,31 @@ import agent.AbstractAgent;
 import goalplantree.ActionNode;
 import goalplantree.GoalNode;
 import goalplantree.Literal;
+import goalplantree.LiteralTable;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public abstract class AbstractEnvironment {
 
     /**
-     * environment states are literal name and value pairs
+     * the values of the literals and the journal of their changes, indexed by the interned literal ids
      */
-    Map<String, Boolean> states;
+    EnvironmentState state;
     /**
      * the list of agents that are situated in this environment
      */
     ArrayList<AbstractAgent> agents;
-    /**
-     * the list of changed variables at current cycle
-     */
-    ArrayList<Literal> nStates;
     /**
      * new goals for each agent at current cycle
      */
     HashMap<String, ArrayList<GoalNode>> nGoals = new HashMap<>();
+    /**
+     * the pool on which the agents deliberate in parallel cycles, null if the agents run one after another
+     */
+    ForkJoinPool pool;
 
     /**
      * constructor
@@ -70,13 +73,13 @@ public abstract class AbstractEnvironment {
      * @param means the corresponding poisson means
      */
     private void init(ArrayList<Literal> literals, ArrayList<Double> means){
-        states = new HashMap<>();
+        state = new EnvironmentState();
         agents = new ArrayList<>();
 
         if(literals != null && means != null && literals.size() == means.size()){
             for(int i = 0; i < literals.size(); i++){
                 // add states
-                states.put(literals.get(i).getName(), literals.get(i).getState());
+                state.init(literals.get(i));
             }
         }
     }
@@ -131,11 +134,30 @@ public abstract class AbstractEnvironment {
 
 
     /**
-     * all the agents in this environment run one cycle
+     * set the number of threads on which the agents deliberate. With more than one thread, each cycle is a parallel
+     * cycle (see run()).
+     * @param n
+     */
+    public void setThreads(int n){
+        if(pool != null)
+            pool.shutdown();
+        pool = n > 1 ? new ForkJoinPool(n) : null;
+    }
+
+    /**
+     * all the agents in this environment run one cycle.
+     *
+     * By default, each agent in turn senses the environment, deliberates and executes its action, so that it senses
+     * the actions executed before it in this cycle. In a parallel cycle (see setThreads), all the agents first sense
+     * the same changes, the actions executed in the previous cycle, and then deliberate concurrently, each on its
+     * own state. Their actions are then executed in the order of the agents, as are their exeSucceed and exeFail,
+     * so the result of a cycle does not depend on the threads.
      */
     public boolean run(){
-        // new states are initialised
-        nStates = new ArrayList<>();
+        if(pool != null)
+            return runParallel();
+        // the changes of the new cycle start
+        state.nextCycle();
         // a value indicates if all agents stops executing
         boolean stoped = true;
         // for all the agents, run one cycle
@@ -150,34 +172,9 @@ public abstract class AbstractEnvironment {
             // agent deliberates the best choice at the current cycle
             boolean executable = a.deliberate();
 
-            System.out.println("executable: "+ executable);
             // if there are executable intentions
-            if(executable){
+            if(act(a, executable))
                 stoped = false;
-                // agent execute the action
-                // get the action
-                ActionNode act = a.execute(this);
-
-                System.out.println(act == null? "null": act.getName());
-
-                // if an action is selected for execution
-                if(act != null){
-                    // apply the action to the environment and get the execution result
-                    boolean result = executeAction(act);
-
-                    // the agent update its intentions according to the execution results
-                    if(result)
-                        a.exeSucceed(); // succeeds
-                    else
-                        a.exeFail();    // fails
-                }
-                // if a null is return, report the error
-                else {
-                    System.err.println("null cannot be executed");
-                    System.exit(0);
-                }
-
-            }
         }
         // the environment changes after all agents executed their actions
         //envChange();
@@ -185,6 +182,67 @@ public abstract class AbstractEnvironment {
         return !stoped;
     }
 
+    /**
+     * all the agents in this environment run one parallel cycle
+     */
+    private boolean runParallel(){
+        // all the agents sense the same changes, in order as the percepts may be random
+        for(AbstractAgent a : agents){
+            a.sense(this);
+            a.adoptGoals(nGoals.remove(a.name));
+        }
+        // the agents deliberate concurrently
+        ArrayList<ForkJoinTask<Boolean>> deliberations = new ArrayList<>(agents.size());
+        for(AbstractAgent a : agents){
+            deliberations.add(pool.submit(a::deliberate));
+        }
+        // the actions are executed in the order of the agents
+        state.nextCycle();
+        boolean stoped = true;
+        for(int i = 0; i < agents.size(); i++){
+            if(act(agents.get(i), deliberations.get(i).join()))
+                stoped = false;
+        }
+        return !stoped;
+    }
+
+    /**
+     * an agent executes the action it chose, if any, and updates its intentions according to the result. If the
+     * choices of the agent do not lead to an action, the error is reported and the agent does nothing in this cycle,
+     * rather than stopping the program while the other agents are deliberating.
+     * @param a the agent
+     * @param executable the result of the deliberation of the agent
+     * @return true, if the agent executed an action
+     */
+    private boolean act(AbstractAgent a, boolean executable){
+        System.out.println("executable: "+ executable);
+        if(!executable)
+            return false;
+        // agent execute the action
+        // get the action
+        ActionNode act = a.execute(this);
+
+        System.out.println(act == null? "null": act.getName());
+
+        // if an action is selected for execution
+        if(act != null){
+            // apply the action to the environment and get the execution result
+            boolean result = executeAction(act);
+
+            // the agent update its intentions according to the execution results
+            if(result)
+                a.exeSucceed(); // succeeds
+            else
+                a.exeFail();    // fails
+        }
+        // if a null is return, report the error
+        else {
+            System.err.println("null cannot be executed");
+            return false;
+        }
+        return true;
+    }
+
     /**
      * execute an action to it
      * @param action
@@ -194,17 +252,10 @@ public abstract class AbstractEnvironment {
         // if action is null, return true
         if(action == null)
             return true;
-        // get its precondition
-        Literal[] prec = action.getPrec();
         // if the precondition holds
-        if(evaluate(prec)){
-            // get its postcondition
-            Literal[] post = action.getPostc();
-            apply(post);
-            // all the postconditions are added to the changed literals
-            for(Literal l : post){
-                nStates.add(l);
-            }
+        if(state.holds(action.getPrecondition())){
+            // apply the postcondition, whose literals are added to the changes of this cycle
+            state.apply(action.getPostcondition());
             return true;
         }else {
             // return false, if it does not hold
@@ -213,71 +264,35 @@ public abstract class AbstractEnvironment {
     }
 
     /**
-     * check if a given literal holds in this environment
-     * @param literal a given literal
-     * @return true, if it does hold; false, otherwise.
+     * @return the current cycle of the environment, 0 before the first one
      */
-    private boolean evaluate(Literal literal){
-        // get the literal name
-        String name = literal.getName();
-        // check if the value of this literal equals to the value in the environment
-        if(states.get(name) == literal.getState())
-            return true;
-        else
-            return false;
+    public int getCycle(){
+        return state.getCycle();
     }
 
     /**
-     * check if a given list of literals hold in the environment
-     * @param literals a list of literals
-     * @return true, if all literal hold; false, otherwise.
+     * @param cycle a cycle
+     * @return the changes made to the environment since the start of the cycle, in order, as a view that does not
+     * change
      */
-    private boolean evaluate(Literal[] literals){
-        // if null is given, return true
-        if(literals == null)
-            return true;
-        // check each literal
-        for(Literal l : literals){
-            // if one of the literals does not hold, return false
-            if(!evaluate(l))
-                return false;
-        }
-        // return true if all the literals hold
-        return true;
+    public List<Literal> changesSince(int cycle){
+        return state.changesSince(cycle);
     }
 
     /**
-     * apply a given literal to the current environment
-     * @param literal the given literal
+     * @return the changes made to the environment in the current cycle
      */
-    private void apply(Literal literal){
-        if(literal == null)
-            return;
-        // apply the literal
-        states.put(literal.getName(), literal.getState());
+    public List<Literal> getStates(){
+        return state.changesSince(state.getCycle());
     }
 
     /**
-     * apply a list of literals to the environment
-     * @param literals
+     * given the vision of an agent, return the changes of the current cycle it perceives
+     * @param visions the vision of the agent on each literal, indexed by the literal ids (see LiteralTable); the
+     *                literals beyond the length of the array are not visible
+     * @return the list of new percepts of the agent
      */
-    private void apply(Literal[] literals){
-        if(literals == null)
-            return;
-        // apply all literals
-        for(Literal l : literals){
-            apply(l);
-        }
-    }
-
-    public ArrayList<Literal> getStates(){
-        if(nStates == null)
-            return new ArrayList<>();
-        else
-            return nStates;
-    }
-
-    public abstract ArrayList<Literal> getStates(HashMap<String, Double> visions);
+    public abstract List<Literal> getStates(double[] visions);
 
 
     /**
@@ -285,8 +300,9 @@ public abstract class AbstractEnvironment {
      */
     public String onPrint(){
         String result = "Environment States = {";
-        for(Map.Entry<String, Boolean> b : states.entrySet()){
-            result += "(" + b.getKey() + "," + b.getValue() + ");";
+        for(int id = 0; id < state.words() << 6; id++){
+            if(state.isKnown(id))
+                result += "(" + LiteralTable.nameOf(id) + "," + state.getValue(id) + ");";
         }
         result += " }.\n";
         result += "Poisson Processes = {";
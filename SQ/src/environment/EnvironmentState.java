@@ -0,0 +1,226 @@
+package environment;
+
+import goalplantree.Condition;
+import goalplantree.Literal;
+import goalplantree.LiteralTable;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The state of an environment: the value of each literal, stored as bitsets indexed by the interned literal ids (see
+ * LiteralTable), and an append-only journal of the changes made to it, in which each cycle of the environment starts
+ * at a known position. The changes since a cycle are a slice of the journal (see changesSince), which is read without
+ * copying it.
+ *
+ * The state itself is changed and read by a single thread, the one running the cycles of the environment.
+ */
+public final class EnvironmentState {
+
+    /**
+     * the literals with a value, and the values of these literals
+     */
+    private long[] known;
+    private long[] truth;
+    /**
+     * the changes made to the state, in order
+     */
+    private Literal[] journal = new Literal[64];
+    private int size;
+    /**
+     * the position in the journal where each cycle starts, from cycle 0 to the current cycle
+     */
+    private int[] cycles = new int[64];
+    private int cycle;
+
+    public EnvironmentState(){
+        int words = Math.max(1, (LiteralTable.size() + 63) >>> 6);
+        known = new long[words];
+        truth = new long[words];
+    }
+
+    /**
+     * @return the current cycle, 0 before the first one starts
+     */
+    public int getCycle(){
+        return cycle;
+    }
+
+    /**
+     * start a new cycle, whose changes start at the end of the journal
+     * @return the new cycle
+     */
+    public int nextCycle(){
+        if(cycle + 1 == cycles.length)
+            cycles = Arrays.copyOf(cycles, 2 * cycles.length);
+        cycles[++cycle] = size;
+        return cycle;
+    }
+
+    /**
+     * set the initial value of a literal, which is not a change
+     * @param literal the literal and its value
+     */
+    public void init(Literal literal){
+        write(literal.getId(), literal.getState());
+    }
+
+    /**
+     * apply a change to the state and add it to the journal
+     * @param literal the literal and its new value
+     */
+    public void apply(Literal literal){
+        write(literal.getId(), literal.getState());
+        append(literal);
+    }
+
+    /**
+     * apply a postcondition to the state, one word of the bitsets at a time, and add its literals to the journal
+     * @param condition the postcondition
+     */
+    public void apply(Condition condition){
+        if(condition.isEmpty())
+            return;
+        for(int i = 0; i < condition.size(); i++){
+            int w = condition.word(i);
+            ensureCapacity(w);
+            long mask = condition.mask(i);
+            known[w] |= mask;
+            truth[w] = (truth[w] & ~mask) | condition.values(i);
+        }
+        for(Literal l : condition.getLiterals()){
+            append(l);
+        }
+    }
+
+    /**
+     * @return true, if the literal has a value and the value is the one of the literal
+     */
+    public boolean holds(Literal literal){
+        return holds(known, truth, literal);
+    }
+
+    /**
+     * @return true, if every literal of the condition has a value and the value is the one required
+     */
+    public boolean holds(Condition condition){
+        return holds(known, truth, condition);
+    }
+
+    /**
+     * @param id the id of a literal
+     * @return true, if the literal has a value
+     */
+    public boolean isKnown(int id){
+        return bit(known, id);
+    }
+
+    /**
+     * @param id the id of a literal
+     * @return the value of the literal, false if it has none
+     */
+    public boolean getValue(int id){
+        return bit(truth, id);
+    }
+
+    /**
+     * @return the number of words of the bitsets, i.e., the literals have ids below 64 times this number
+     */
+    public int words(){
+        return known.length;
+    }
+
+    /**
+     * @param cycle a cycle
+     * @return the changes made since the start of the cycle, in order, as a view of the journal which does not
+     * change
+     */
+    public List<Literal> changesSince(int cycle){
+        return changes(journal, cycles, this.cycle, size, cycle);
+    }
+
+    /**
+     * the changes of a slice of the journal
+     */
+    private static final class Changes extends AbstractList<Literal> implements RandomAccess {
+        private final Literal[] journal;
+        private final int from;
+        private final int to;
+
+        Changes(Literal[] journal, int from, int to){
+            this.journal = journal;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Literal get(int index){
+            if(index < 0 || index >= to - from)
+                throw new IndexOutOfBoundsException("index " + index + ", size " + (to - from));
+            return journal[from + index];
+        }
+
+        @Override
+        public int size(){
+            return to - from;
+        }
+    }
+
+    private static final List<Literal> NONE = new Changes(new Literal[0], 0, 0);
+
+    private static List<Literal> changes(Literal[] journal, int[] cycles, int current, int size, int cycle){
+        if(cycle > current)
+            return NONE;
+        int from = cycle <= 0 ? 0 : cycles[cycle];
+        return from == size ? NONE : new Changes(journal, from, size);
+    }
+
+    private static boolean holds(long[] known, long[] truth, Literal literal){
+        int id = literal.getId();
+        return bit(known, id) && bit(truth, id) == literal.getState();
+    }
+
+    private static boolean holds(long[] known, long[] truth, Condition condition){
+        if(condition.isContradictory())
+            return false;
+        for(int i = 0; i < condition.size(); i++){
+            int w = condition.word(i);
+            long mask = condition.mask(i);
+            if(w >= known.length || (known[w] & mask) != mask || ((truth[w] ^ condition.values(i)) & mask) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean bit(long[] bits, int id){
+        int w = id >>> 6;
+        return w < bits.length && (bits[w] & (1L << id)) != 0;
+    }
+
+    private void write(int id, boolean value){
+        int w = id >>> 6;
+        ensureCapacity(w);
+        known[w] |= 1L << id;
+        if(value)
+            truth[w] |= 1L << id;
+        else
+            truth[w] &= ~(1L << id);
+    }
+
+    private void append(Literal literal){
+        // the journal is copied when it grows, so that the slices returned before keep reading the old array
+        if(size == journal.length)
+            journal = Arrays.copyOf(journal, 2 * size);
+        journal[size++] = literal;
+    }
+
+    private void ensureCapacity(int w){
+        if(w >= known.length){
+            int words = Math.max(w + 1, 2 * known.length);
+            known = Arrays.copyOf(known, words);
+            truth = Arrays.copyOf(truth, words);
+        }
+    }
+}
@@ -3,8 +3,7 @@ package environment;
 import goalplantree.Literal;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Random;
 
 public class SynthEnvironment extends AbstractEnvironment {
@@ -33,19 +32,28 @@ public class SynthEnvironment extends AbstractEnvironment {
      * @return the list of new percepts of an agent
      */
     @Override
-    public ArrayList<Literal> getStates(HashMap<String, Double> visions) {
-        // if no updates, then there is no new percepts
-        if(nStates == null)
-            return new ArrayList<>();
-
-        ArrayList<Literal> lits = new ArrayList<>();
-        for(Literal l : nStates){
+    public List<Literal> getStates(double[] visions) {
+        List<Literal> changes = getStates();
+        // the changes are only copied once one of them is unseen, so that they are not copied if all are seen
+        ArrayList<Literal> lits = null;
+        for(int i = 0; i < changes.size(); i++){
+            Literal l = changes.get(i);
             // if the random value is less than or equal to the vision, then the updates will be seen by the agent
-            // otherwise, the change is unseen
-            if(visions.get(l.getName()) >= rm.nextDouble()){
-                lits.add(l);
+            // otherwise, the change is unseen. A random value is drawn for every change, including the ones the
+            // agent has full vision on, so that the random stream does not depend on the visions
+            boolean seen = vision(visions, l) >= rm.nextDouble();
+            if(lits != null){
+                if(seen)
+                    lits.add(l);
+            }
+            else if(!seen){
+                lits = new ArrayList<>(changes.subList(0, i));
             }
         }
-        return lits;
+        return lits == null ? changes : lits;
+    }
+
+    private static double vision(double[] visions, Literal l){
+        return l.getId() < visions.length ? visions[l.getId()] : 0;
     }
 }
@@ -0,0 +1,384 @@
+package experiment;
+
+import agent.*;
+import environment.SynthEnvironment;
+import goalplantree.ExecutionState;
+import goalplantree.GoalNode;
+import goalplantree.GptModel;
+import goalplantree.Literal;
+import simulation.QsiStore;
+import simulation.Simulator;
+import xml2bdi.BinaryReader;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the trials of the agents on the GPT files of one or more corpora concurrently, and writes one row per trial:
+ * the goals achieved, the number of cycles, the percentiles of the deliberation latency of the cycles, and the
+ * numbers of rollouts and of QSI estimations back-propagated as simulation results.
+ *
+ * usage: ExperimentRunner [options] corpus directories or GPT files
+ *  -types 2,3,5    the agent types, as in Main: 2 MCTS, 3 SP-MCTS, 5 QSI-SP-MCTS; 3 by default
+ *  -seeds 1,2,3    the seeds of the trials of each file and type; 1 by default
+ *  -trials n       the seeds 1 to n instead of -seeds
+ *  -files n        the number of GPT files of each corpus, all by default
+ *  -pool n         the number of trials run at the same time, the number of processors by default
+ *  -threads n      the number of search threads of each agent, 1 by default
+ *  -budget ms      the time budget of each deliberation, 0 (a fixed number of iterations) by default
+ *  -sims n         the number of simulations of each plan for the QSI, 10000 by default
+ *  -tolerance x    the convergence tolerance of the QSI simulations, 0 (a fixed number) by default
+ *  -reuse          reuse the search tree of the last cycle (see MCTSAgent.setReuseTree), off by default
+ *  -transpositions n  the number of entries of the transposition table of each agent, 0 (none) by default
+ *  -out file       the results file, written as JSON lines if it ends with .jsonl and as CSV otherwise;
+ *                  CSV on the standard output by default
+ *
+ * The XML files of a corpus that have been converted to the binary format (see xml2bdi.BinaryWriter) are read from
+ * their binary files. Each GPT file is read once and its model is shared by all its trials, as are its QSI totals,
+ * which are simulated with a seed derived from the name of the file, whichever of its trials runs first.
+ * The output of the agents and the environment is discarded while the trials run. The rows are written in the order
+ * of the trials (file, type, seed) as soon as all the earlier trials are done.
+ */
+public class ExperimentRunner {
+
+    static final String[] COLUMNS = {"file", "type", "seed", "goals", "achieved", "cycles", "rollouts",
+            "fakeRollouts", "p50Ms", "p90Ms", "p99Ms", "maxMs", "wallMs"};
+
+    // the options
+    int[] types = {3};
+    long[] seeds = {1};
+    int files = Integer.MAX_VALUE;
+    int poolSize = Runtime.getRuntime().availableProcessors();
+    int threads = 1;
+    long budget = 0;
+    int sims = 10000;
+    double tolerance = 0;
+    boolean reuse = false;
+    int transpositions = 0;
+    String out;
+    final ArrayList<String> corpora = new ArrayList<>();
+
+    // the GPT files read so far, so that the trials of a file share its model and its QSI totals
+    private final ConcurrentHashMap<Path, Gpt> gpts = new ConcurrentHashMap<>();
+
+    /**
+     * a GPT file, read by the first trial that needs it
+     */
+    private static final class Gpt {
+        GptModel model;
+        // the QSI totals, simulated or loaded by the first trial of the QSI agent on the file
+        final CompletableFuture<ExecutionState> qsi = new CompletableFuture<>();
+        final AtomicBoolean simulating = new AtomicBoolean();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExperimentRunner runner = new ExperimentRunner();
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "-types": runner.types = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "-seeds": runner.seeds = Arrays.stream(args[++i].split(",")).mapToLong(Long::parseLong).toArray(); break;
+                case "-trials": runner.seeds = new long[Integer.parseInt(args[++i])];
+                    for(int s = 0; s < runner.seeds.length; s++){
+                        runner.seeds[s] = s + 1;
+                    }
+                    break;
+                case "-files": runner.files = Integer.parseInt(args[++i]); break;
+                case "-pool": runner.poolSize = Integer.parseInt(args[++i]); break;
+                case "-threads": runner.threads = Integer.parseInt(args[++i]); break;
+                case "-budget": runner.budget = Long.parseLong(args[++i]); break;
+                case "-sims": runner.sims = Integer.parseInt(args[++i]); break;
+                case "-tolerance": runner.tolerance = Double.parseDouble(args[++i]); break;
+                case "-reuse": runner.reuse = true; break;
+                case "-transpositions": runner.transpositions = Integer.parseInt(args[++i]); break;
+                case "-out": runner.out = args[++i]; break;
+                default: runner.corpora.add(args[i]);
+            }
+        }
+        if(runner.corpora.isEmpty()){
+            System.err.println("ERROR: no GPT corpus specified!");
+            return;
+        }
+        runner.run();
+    }
+
+    /**
+     * run all the trials and write their results
+     */
+    void run() throws IOException, InterruptedException {
+        // the trials in the order of their rows
+        ArrayList<Trial> trials = new ArrayList<>();
+        for(String corpus : corpora){
+            for(File file : gptFiles(corpus, files)){
+                for(int type : types){
+                    for(long seed : seeds){
+                        trials.add(new Trial(file.getPath(), type, seed));
+                    }
+                }
+            }
+        }
+
+        PrintStream stdout = System.out;
+        boolean jsonl = out != null && out.endsWith(".jsonl");
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, poolSize));
+        try(PrintStream results = out == null ? new PrintStream(new FileOutputStream(FileDescriptor.out), true)
+                : new PrintStream(new BufferedOutputStream(new FileOutputStream(out)), true)){
+            // the agents and the environment print their progress on the standard output
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            ArrayList<Future<Trial>> done = new ArrayList<>();
+            for(Trial trial : trials){
+                done.add(pool.submit(() -> run(trial)));
+            }
+            if(!jsonl)
+                results.println(String.join(",", COLUMNS));
+            for(int i = 0; i < done.size(); i++){
+                Trial trial = trials.get(i);
+                try {
+                    done.get(i).get();
+                    results.println(jsonl ? trial.toJson() : trial.toCsv());
+                }catch (ExecutionException e){
+                    System.err.println("ERROR: trial " + trial.file + " type " + trial.type + " seed " + trial.seed
+                            + " failed: " + e.getCause());
+                }
+                System.err.println("trial " + (i + 1) + "/" + trials.size());
+            }
+        }finally {
+            pool.shutdown();
+            System.setOut(stdout);
+        }
+    }
+
+    /**
+     * @return the GPT file itself, or the first n GPT files of a corpus directory in numerical order
+     */
+    static List<File> gptFiles(String corpus, int n){
+        File dir = new File(corpus);
+        if(dir.isFile())
+            return Collections.singletonList(dir);
+        File[] fs = dir.listFiles((d, name) -> name.endsWith(".xml"));
+        // the binary files are used instead of the XML files they were converted from
+        for(int i = 0; fs != null && i < fs.length; i++){
+            String path = fs[i].getPath();
+            File binary = new File(path.substring(0, path.length() - ".xml".length()) + BinaryReader.EXTENSION);
+            if(binary.isFile())
+                fs[i] = binary;
+        }
+        if(fs == null)
+            throw new IllegalArgumentException("no GPT files in " + corpus);
+        Arrays.sort(fs, Comparator.comparingInt((File f) -> number(f.getName())).thenComparing(File::getName));
+        return Arrays.asList(fs).subList(0, Math.min(n, fs.length));
+    }
+
+    private static int number(String name){
+        try {
+            return Integer.parseInt(name.substring(0, name.lastIndexOf('.')));
+        }catch (NumberFormatException e){
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * run a trial, as Main runs each of its tests
+     * @return the trial with its results
+     */
+    Trial run(Trial trial) throws IOException {
+        long start = System.nanoTime();
+        Path path = Paths.get(trial.file).toAbsolutePath();
+        Gpt gpt = gpts.computeIfAbsent(path, p -> new Gpt());
+        // the first trial of a file reads it
+        synchronized (gpt){
+            if(gpt.model == null){
+                gpt.model = BinaryReader.read(trial.file);
+                if(gpt.model == null)
+                    throw new IOException("unable to read " + trial.file);
+            }
+        }
+        // only the trials of the QSI agent wait for the QSI totals
+        ExecutionState state = trial.type == 5 ? new ExecutionState(qsi(gpt, path)) : gpt.model.newState();
+        ArrayList<Literal> literals = new ArrayList<>(gpt.model.getLiterals());
+        ArrayList<GoalNode> tlgs = new ArrayList<>(gpt.model.getTlgs());
+        trial.goals = tlgs.size();
+
+        SynthEnvironment environment = new SynthEnvironment(literals, 0);
+        ArrayList<Belief> bs = new ArrayList<>();
+        for(Literal l : literals){
+            bs.add(new Belief(l.getName(), l.getState() ? 1 : 0));
+        }
+        MCTSAgent agent = agent(trial, bs, tlgs, state);
+        agent.setSeed(trial.seed);
+        agent.setThreads(threads);
+        agent.setReuseTree(reuse);
+        agent.setTranspositions(transpositions);
+        if(budget > 0)
+            agent.setBudget(Duration.ofMillis(budget));
+        environment.addAgent(agent);
+
+        try {
+            while (environment.run()){
+                trial.cycles++;
+            }
+        }finally {
+            agent.shutdown();
+        }
+        trial.achieved = agent.getNumAchivedGoal();
+        trial.wall = System.nanoTime() - start;
+        return trial;
+    }
+
+    /**
+     * @return the QSI totals of a GPT file, which the first trial that needs them simulates or loads while the other
+     * trials wait for them
+     */
+    private ExecutionState qsi(Gpt gpt, Path path) throws IOException {
+        if(gpt.simulating.compareAndSet(false, true)){
+            try {
+                Simulator simulator = new Simulator();
+                simulator.setSeed(path.getFileName().toString().hashCode());
+                simulator.setConvergence(tolerance, 500);
+                ExecutionState qsi = gpt.model.newState();
+                QsiStore.simulate(simulator, path, sims, gpt.model.getTlgs(), qsi);
+                gpt.qsi.complete(qsi);
+            }catch (IOException | RuntimeException e){
+                gpt.qsi.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return gpt.qsi.join();
+        }catch (CompletionException e){
+            throw new IOException("unable to simulate the QSI of " + path, e.getCause());
+        }
+    }
+
+    /**
+     * @return an agent of the type of the trial, which records the latency and the rollouts of its deliberations
+     */
+    private static MCTSAgent agent(Trial trial, ArrayList<Belief> bs, ArrayList<GoalNode> tlgs, ExecutionState state){
+        switch (trial.type){
+            case 2: return new MCTSAgent("MCTS-Agent", bs, tlgs, state){
+                @Override
+                public boolean deliberate(){
+                    long start = System.nanoTime();
+                    boolean executable = super.deliberate();
+                    trial.record(System.nanoTime() - start, this);
+                    return executable;
+                }
+            };
+            case 5: return new QSISPMCTSAgent("QSISPMCTS-Agent", bs, tlgs, state){
+                @Override
+                public boolean deliberate(){
+                    long start = System.nanoTime();
+                    boolean executable = super.deliberate();
+                    trial.record(System.nanoTime() - start, this);
+                    return executable;
+                }
+            };
+            default: return new SPMCTSAgent("SPMCTS-Agent", bs, tlgs, state){
+                @Override
+                public boolean deliberate(){
+                    long start = System.nanoTime();
+                    boolean executable = super.deliberate();
+                    trial.record(System.nanoTime() - start, this);
+                    return executable;
+                }
+            };
+        }
+    }
+
+    /**
+     * a trial of an agent type on a GPT file with a seed, and its results
+     */
+    static final class Trial {
+        final String file;
+        final int type;
+        final long seed;
+
+        // the number of top-level goals and the number achieved
+        int goals;
+        int achieved;
+        // the number of cycles in which the agent executed an action
+        int cycles;
+        // the latency of each deliberation in nanoseconds
+        long[] latencies = new long[16];
+        int deliberations;
+        long rollouts;
+        long fakeRollouts;
+        // the duration of the trial in nanoseconds
+        long wall;
+
+        Trial(String file, int type, long seed){
+            this.file = file;
+            this.type = type;
+            this.seed = seed;
+        }
+
+        void record(long latency, MCTSAgent agent){
+            if(deliberations == latencies.length)
+                latencies = Arrays.copyOf(latencies, 2 * deliberations);
+            latencies[deliberations++] = latency;
+            rollouts += agent.getLastRollouts();
+            fakeRollouts += agent.getLastFakeRollouts();
+        }
+
+        /**
+         * @param p a percentile between 0 and 100
+         * @return the latency of this percentile of the deliberations in milliseconds (nearest rank)
+         */
+        double percentile(double p){
+            if(deliberations == 0)
+                return 0;
+            long[] sorted = Arrays.copyOf(latencies, deliberations);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(p / 100 * deliberations);
+            return sorted[Math.max(0, rank - 1)] / 1e6;
+        }
+
+        private Object[] values(){
+            return new Object[]{file, type, seed, goals, achieved, cycles, rollouts, fakeRollouts,
+                    percentile(50), percentile(90), percentile(99), percentile(100), wall / 1e6};
+        }
+
+        String toCsv(){
+            StringBuilder sb = new StringBuilder();
+            Object[] values = values();
+            for(int i = 0; i < values.length; i++){
+                if(i > 0)
+                    sb.append(',');
+                sb.append(value(values[i], true));
+            }
+            return sb.toString();
+        }
+
+        String toJson(){
+            StringBuilder sb = new StringBuilder("{");
+            Object[] values = values();
+            for(int i = 0; i < values.length; i++){
+                if(i > 0)
+                    sb.append(',');
+                sb.append('"').append(COLUMNS[i]).append("\":").append(value(values[i], false));
+            }
+            return sb.append('}').toString();
+        }
+
+        /**
+         * @return a number as it is, or a quoted string with its quotes doubled in CSV, or its quotes and backslashes
+         * escaped in JSON
+         */
+        private static String value(Object value, boolean csv){
+            if(value instanceof Double)
+                return String.format(Locale.ROOT, "%.3f", (Double) value);
+            if(value instanceof Number)
+                return value.toString();
+            String s = value.toString();
+            if(csv)
+                s = s.replace("\"", "\"\"");
+            else
+                s = s.replace("\\", "\\\\").replace("\"", "\\\"");
+            return '"' + s + '"';
+        }
+    }
+}
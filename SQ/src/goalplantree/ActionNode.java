@@ -14,6 +14,11 @@ public class ActionNode extends TreeNode {
      * postcondition
      */
     final private Literal[] postc;
+    /**
+     * precondition and postcondition compiled into bit masks
+     */
+    final private Condition precondition;
+    final private Condition postcondition;
 
 
     /**
@@ -24,6 +29,8 @@ public class ActionNode extends TreeNode {
         super(name);
         this.prec = new Literal[0];
         this.postc = new Literal[0];
+        this.precondition = Condition.EMPTY;
+        this.postcondition = Condition.EMPTY;
     }
 
     /**
@@ -36,6 +43,8 @@ public class ActionNode extends TreeNode {
         super(name);
         this.prec = precondition == null ? new Literal[0] : precondition;
         this.postc = postcondition == null ? new Literal[0] : postcondition;
+        this.precondition = new Condition(this.prec);
+        this.postcondition = new Condition(this.postc);
     }
 
     /**
@@ -52,10 +61,23 @@ public class ActionNode extends TreeNode {
             return this.postc;
     }
 
+    /**
+     * @return the compiled precondition of this action
+     */
+    public Condition getPrecondition(){
+        return this.precondition;
+    }
+
+    /**
+     * @return the compiled postcondition of this action
+     */
+    public Condition getPostcondition(){
+        return this.postcondition;
+    }
+
 
     public String onPrintNode(int num){
         String result = "Action:[type = " + name +
-                        "; status = " + status +
                         "; prec = {";
         if(getPrec().length > 0){
             result += getPrec()[0].onPrintCondition();
@@ -0,0 +1,121 @@
+package goalplantree;
+
+import java.util.Arrays;
+
+/**
+ * A list of literals compiled into bit masks over the interned literal ids (see LiteralTable), so that a belief base
+ * stored as bitsets can check or apply it with a few word operations. For each 64-bit word touched by the literals,
+ * the condition keeps the mask of the literals in this word and the values they require, i.e., a set bit for a
+ * positive literal and a clear bit for a negative one.
+ *
+ * As a precondition, the condition holds if every masked belief is certain and has the required value. As a
+ * postcondition, the masked beliefs are set to the required values, the last literal winning if a literal appears
+ * several times. The literals are kept for the probabilistic evaluation of uncertain beliefs.
+ */
+public final class Condition {
+
+    /**
+     * the empty condition, which always holds and changes nothing
+     */
+    public static final Condition EMPTY = new Condition(new Literal[0]);
+
+    private final Literal[] literals;
+    // the indexes of the words touched by the literals, in increasing order
+    private final int[] words;
+    // the literals in each word
+    private final long[] masks;
+    // the required values of the literals in each word
+    private final long[] values;
+    // true, if the condition requires both values of a literal
+    private final boolean contradictory;
+
+    /**
+     * compile a list of literals
+     * @param literals the literals
+     */
+    public Condition(Literal[] literals){
+        this.literals = literals == null ? new Literal[0] : literals;
+        // the distinct words in increasing order
+        int[] ws = new int[this.literals.length];
+        int n = 0;
+        for(Literal l : this.literals){
+            int w = l.getId() >>> 6;
+            int pos = Arrays.binarySearch(ws, 0, n, w);
+            if(pos < 0){
+                pos = -pos - 1;
+                System.arraycopy(ws, pos, ws, pos + 1, n - pos);
+                ws[pos] = w;
+                n++;
+            }
+        }
+        words = Arrays.copyOf(ws, n);
+        masks = new long[n];
+        values = new long[n];
+        boolean contra = false;
+        for(Literal l : this.literals){
+            int i = Arrays.binarySearch(words, l.getId() >>> 6);
+            long bit = 1L << l.getId();
+            if((masks[i] & bit) != 0 && ((values[i] & bit) != 0) != l.getState())
+                contra = true;
+            masks[i] |= bit;
+            if(l.getState())
+                values[i] |= bit;
+            else
+                values[i] &= ~bit;
+        }
+        contradictory = contra;
+    }
+
+    /**
+     * @return the literals of this condition
+     */
+    public Literal[] getLiterals(){
+        return literals;
+    }
+
+    /**
+     * @return the number of words touched by this condition
+     */
+    public int size(){
+        return words.length;
+    }
+
+    /**
+     * @param i the index of a touched word
+     * @return the index of the word in the bitsets
+     */
+    public int word(int i){
+        return words[i];
+    }
+
+    /**
+     * @param i the index of a touched word
+     * @return the literals of the condition in this word
+     */
+    public long mask(int i){
+        return masks[i];
+    }
+
+    /**
+     * @param i the index of a touched word
+     * @return the values required by the condition in this word, the last literal winning for a postcondition
+     */
+    public long values(int i){
+        return values[i];
+    }
+
+    /**
+     * @return true, if the condition contains a literal and its negation, which the masks cannot express as a
+     * precondition
+     */
+    public boolean isContradictory(){
+        return contradictory;
+    }
+
+    /**
+     * @return true, if the condition has no literals
+     */
+    public boolean isEmpty(){
+        return literals.length == 0;
+    }
+}
@@ -0,0 +1,199 @@
+package goalplantree;
+
+import java.util.Arrays;
+
+/**
+ * The state of one run of the goal-plan trees of a GptModel, kept apart from the nodes so that the nodes can be shared
+ * by several runs: the status of each node as the agent executes its intentions, and the QSI totals of each node
+ * collected by the offline simulations. Both are indexed by TreeNode.getIndex() and grow with the indexes used.
+ *
+ * The statuses are only changed by the agent executing the run. The QSI totals may be added by several simulation
+ * threads at the same time and are guarded by a lock, and they can be shared by the runs of the same model with the
+ * same simulations (see ExecutionState(ExecutionState)).
+ */
+public final class ExecutionState {
+
+    /**
+     * the QSI totals of the nodes
+     */
+    private static final class Totals {
+        // the total number of fragile steps and of steps establishing each literal, indexed by Literal.getIndex()
+        int[][] frag;
+        int[][] estab;
+        // the total length of the simulation paths
+        int[] length;
+        // the total number of simulations
+        int[] num;
+
+        Totals(int size){
+            frag = new int[size][];
+            estab = new int[size][];
+            length = new int[size];
+            num = new int[size];
+        }
+
+        void ensure(int index){
+            if(index < num.length)
+                return;
+            int size = Math.max(index + 1, 2 * num.length);
+            frag = Arrays.copyOf(frag, size);
+            estab = Arrays.copyOf(estab, size);
+            length = Arrays.copyOf(length, size);
+            num = Arrays.copyOf(num, size);
+        }
+    }
+
+    private static final int[] NONE = new int[0];
+
+    // the status of each node, null for the default status
+    private TreeNode.Status[] statuses;
+    private final Totals totals;
+
+    /**
+     * the state of a new run
+     */
+    public ExecutionState(){
+        this(0);
+    }
+
+    /**
+     * the state of a new run
+     * @param size the number of nodes of the model
+     */
+    public ExecutionState(int size){
+        statuses = new TreeNode.Status[size];
+        totals = new Totals(size);
+    }
+
+    /**
+     * the state of a new run that shares the QSI totals of another run, so that the simulations are not run again.
+     * The statuses of the nodes are not shared.
+     * @param state the state of another run of the same model
+     */
+    public ExecutionState(ExecutionState state){
+        statuses = new TreeNode.Status[state.statuses.length];
+        totals = state.totals;
+    }
+
+    /**
+     * @param node a node
+     * @return the status of the node in this run
+     */
+    public TreeNode.Status getStatus(TreeNode node){
+        int i = node.getIndex();
+        TreeNode.Status status = i < statuses.length ? statuses[i] : null;
+        return status == null ? TreeNode.Status.DEFAULT : status;
+    }
+
+    /**
+     * @param node a node
+     * @param status the new status of the node in this run
+     */
+    public void setStatus(TreeNode node, TreeNode.Status status){
+        int i = index(node);
+        if(i >= statuses.length)
+            statuses = Arrays.copyOf(statuses, Math.max(i + 1, 2 * statuses.length));
+        statuses[i] = status;
+    }
+
+    /**
+     * @return the total number of fragile steps of each literal, indexed by Literal.getIndex(). The literals beyond
+     * the length of the vector have no fragile steps.
+     */
+    public int[] getTotSimFrag(TreeNode node){
+        int i = node.getIndex();
+        synchronized (totals){
+            return i < 0 || i >= totals.num.length || totals.frag[i] == null ? NONE : totals.frag[i];
+        }
+    }
+
+    /**
+     * @return the total number of steps establishing each literal, indexed by Literal.getIndex(). The literals beyond
+     * the length of the vector have not been established.
+     */
+    public int[] getTotSimEstab(TreeNode node){
+        int i = node.getIndex();
+        synchronized (totals){
+            return i < 0 || i >= totals.num.length || totals.estab[i] == null ? NONE : totals.estab[i];
+        }
+    }
+
+    /**
+     * @return the total length of the simulation paths from this node
+     */
+    public int getTotSimLength(TreeNode node){
+        int i = node.getIndex();
+        synchronized (totals){
+            return i < 0 || i >= totals.num.length ? 0 : totals.length[i];
+        }
+    }
+
+    /**
+     * @return the total number of simulations from this node
+     */
+    public int getTotSimNum(TreeNode node){
+        int i = node.getIndex();
+        synchronized (totals){
+            return i < 0 || i >= totals.num.length ? 0 : totals.num[i];
+        }
+    }
+
+    /**
+     * replace the QSI totals of a node
+     * @param node the node
+     * @param frag the total number of fragile steps of each literal, which is not copied
+     * @param estab the total number of steps establishing each literal, which is not copied
+     * @param length the total length of the simulation paths
+     * @param num the total number of simulations
+     */
+    public void setTotals(TreeNode node, int[] frag, int[] estab, int length, int num){
+        int i = index(node);
+        synchronized (totals){
+            totals.ensure(i);
+            totals.frag[i] = frag;
+            totals.estab[i] = estab;
+            totals.length[i] = length;
+            totals.num[i] = num;
+        }
+    }
+
+    /**
+     * add simulations to the QSI totals of a node
+     * @param node the node
+     * @param frag the number of fragile steps of each literal in the simulations
+     * @param estab the number of steps establishing each literal in the simulations
+     * @param length the total length of the simulation paths
+     * @param num the number of simulations
+     */
+    public void addTotals(TreeNode node, int[] frag, int[] estab, int length, int num){
+        int i = index(node);
+        synchronized (totals){
+            totals.ensure(i);
+            // the vectors of the node are replaced rather than changed, as they may be read outside the lock
+            totals.frag[i] = add(totals.frag[i], frag);
+            totals.estab[i] = add(totals.estab[i], estab);
+            totals.length[i] += length;
+            totals.num[i] += num;
+        }
+    }
+
+    /**
+     * @return a new vector with the sum of two vectors
+     */
+    private static int[] add(int[] total, int[] counts){
+        if(total == null)
+            return counts.clone();
+        int[] sum = Arrays.copyOf(total, Math.max(total.length, counts.length));
+        for(int l = 0; l < counts.length; l++){
+            sum[l] += counts[l];
+        }
+        return sum;
+    }
+
+    private static int index(TreeNode node){
+        int i = node.getIndex();
+        if(i < 0)
+            throw new IllegalArgumentException("node " + node.getName() + " does not belong to a model");
+        return i;
+    }
+}
@@ -1,5 +1,9 @@
 package goalplantree;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class GoalNode extends TreeNode {
 
     /**
@@ -12,7 +16,17 @@ public class GoalNode extends TreeNode {
      */
     final private Literal[] goalConds;
 
+    /**
+     * the literals referenced by the contexts of the plans that can be selected for this goal before an action is
+     * reached, i.e., its plans and the plans of the subgoals they start with
+     */
+    final private Condition footprint;
 
+    /**
+     * the lists of plan choices of this goal by the projection of the beliefs onto its footprint, cached by the
+     * expansion of the MCTS nodes (see mcts.Transitions.getPosChoices)
+     */
+    final private ConcurrentHashMap<Object, int[][]> choices = new ConcurrentHashMap<>();
 
     /**
      * initialisation with no relevant plans
@@ -24,6 +38,7 @@ public class GoalNode extends TreeNode {
         // there is no relevant plan
         plans = new PlanNode[0];
         goalConds = goalCondition;
+        footprint = Condition.EMPTY;
     }
 
     /**
@@ -39,6 +54,26 @@ public class GoalNode extends TreeNode {
             this.plans[i].setParent(this);
         }
         this.goalConds = goalCondition == null ? new Literal[0] : goalCondition;
+        this.footprint = footprint(this.plans);
+    }
+
+    /**
+     * @return the literals referenced by the contexts of the plans and of the plans of the subgoals they start with,
+     * one literal per id
+     */
+    private static Condition footprint(PlanNode[] plans){
+        HashMap<Integer, Literal> literals = new LinkedHashMap<>();
+        for(PlanNode pl : plans){
+            for(Literal l : pl.getPrec()){
+                literals.putIfAbsent(l.getId(), l);
+            }
+            if(!pl.isEmpty() && pl.getPlanbody()[0] instanceof GoalNode){
+                for(Literal l : ((GoalNode) pl.getPlanbody()[0]).getFootprint().getLiterals()){
+                    literals.putIfAbsent(l.getId(), l);
+                }
+            }
+        }
+        return literals.isEmpty() ? Condition.EMPTY : new Condition(literals.values().toArray(new Literal[0]));
     }
 
     /**
@@ -58,6 +93,21 @@ public class GoalNode extends TreeNode {
     }
 
 
+    /**
+     * @return the literals whose beliefs decide which chains of plans can be selected to achieve this goal, i.e., the
+     * ones referenced by the contexts of its plans and of the plans of the subgoals they start with
+     */
+    public Condition getFootprint(){
+        return this.footprint;
+    }
+
+    /**
+     * @return the cache of the plan choices of this goal, shared by the threads searching its goal-plan tree
+     */
+    public ConcurrentHashMap<Object, int[][]> getChoices(){
+        return this.choices;
+    }
+
     /**
      * @return the number of plans
      */
@@ -99,9 +149,8 @@ public class GoalNode extends TreeNode {
     @Override
     public String onPrintNode(int num) {
 
-        String result = "Goal:[type = " + name +
-                        "; status = " + status;
-        result += "}; goalConds = {";
+        String result = "Goal:[type = " + name;
+        result += "; goalConds = {";
         for(int i = 0; i < goalConds.length; i++){
             result += "(" + goalConds[i].getName() + "," + goalConds[i].getState() + ");";
         }
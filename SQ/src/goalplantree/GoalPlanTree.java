@@ -1,6 +1,5 @@
 package goalplantree;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 public class GoalPlanTree {
     /**
@@ -8,34 +7,43 @@ public class GoalPlanTree {
      */
     final GoalNode tlg;
     /**
-     * the list of backtrack goals
+     * the current step and the goals to backtrack to. The cursor is immutable and shared by the copies of this tree,
+     * a progression replaces it by a new one.
      */
-    ArrayList<GoalNode> backtrackList;
+    IntentionCursor cursor;
     /**
-     * current step pointer
+     * the state of the run this intention belongs to, shared by the copies of this tree
      */
-    TreeNode currentStep;
+    final ExecutionState state;
 
     /**
      * estimated Simulation Information
      */
-    public HashMap<String, Double> averSimFrag = new HashMap<>(); // average flagility of this intention
-    public HashMap<String, Double> averSimEstab = new HashMap<>(); // average number of establishment steps
+    public double[] averSimFrag = new double[0]; // average flagility of this intention, indexed by Literal.getIndex()
+    public double[] averSimEstab = new double[0]; // average number of establishment steps, indexed by Literal.getIndex()
     public double averSimLength = 0; // average simulation length
 
 
 
     /**
-     * constructor
+     * constructor, for an intention that does not share the state of its run with other intentions
      * @param goal
      */
     public GoalPlanTree(GoalNode goal){
+        this(goal, new ExecutionState());
+    }
+
+    /**
+     * constructor
+     * @param goal the top-level goal
+     * @param state the state of the run
+     */
+    public GoalPlanTree(GoalNode goal, ExecutionState state){
         // set the top-level goal
         tlg = goal;
-        // initialise the backtrack list
-        backtrackList = new ArrayList<>();
-        // set the current step and its status
-        currentStep = goal;
+        this.state = state;
+        // the current step is the top-level goal, and there is no goal to backtrack to
+        cursor = IntentionCursor.start(goal);
     }
     /**
      * @return the top-level goal of this tree
@@ -44,23 +52,44 @@ public class GoalPlanTree {
         return tlg;
     }
     /**
-     * @return the list of steps for backtracking
+     * @return the state of the run this intention belongs to
+     */
+    public ExecutionState getState(){
+        return state;
+    }
+
+    /**
+     * @return the current position in this gpt
      */
-    public ArrayList<GoalNode> getBacktrackList(){
-        return backtrackList;
+    public IntentionCursor getCursor(){
+        return cursor;
+    }
+
+    /**
+     * @param cursor the new position in this gpt
+     */
+    public void setCursor(IntentionCursor cursor){
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return the number of goals for backtracking
+     */
+    public int getBacktrackDepth(){
+        return cursor.getDepth();
     }
 
     /**
      * @return the current step of this gpt
      */
     public TreeNode getCurrentStep(){
-        return currentStep;
+        return cursor.getStep();
     }
     /**
      * @param node
      */
     public void setCurrentStep(TreeNode node){
-        currentStep = node;
+        cursor = cursor.moveTo(node);
     }
     /**
      * @return the conditions this intention is going to achieve
@@ -73,7 +102,7 @@ public class GoalPlanTree {
         // initialise the current intention
         ArrayList<TreeNode> intention = new ArrayList<>();
         // get the current step
-        TreeNode cnode = this.currentStep;
+        TreeNode cnode = cursor.getStep();
 
         if(cnode == null)
             return intention;
@@ -148,6 +177,7 @@ public class GoalPlanTree {
      */
     public ActionNode progress(){
         System.out.println("progress!!!");
+        TreeNode currentStep = cursor.getStep();
         // if the top-level goal has not been achieved already
         if(currentStep != null){
             // if the current step is an action
@@ -156,7 +186,7 @@ public class GoalPlanTree {
                 // get the action
                 ActionNode act = (ActionNode) currentStep;
                 // activate this action
-                act.setStatus(TreeNode.Status.ACTIVE);
+                state.setStatus(act, TreeNode.Status.ACTIVE);
                 return act;
             }
         }
@@ -169,6 +199,7 @@ public class GoalPlanTree {
      * @return the plan that is applied to achieve the goal
      */
     public PlanNode progress(int index){
+        TreeNode currentStep = cursor.getStep();
         // if the current step is not null, i.e., this intention has not been achieved
         if(currentStep != null){
             // if the current step is really a goal
@@ -181,13 +212,12 @@ public class GoalPlanTree {
                     PlanNode[] plans = goalNode.getPlans();
                     PlanNode pl = plans[index];
                     // activate this goal
-                    goalNode.setStatus(TreeNode.Status.ACTIVE);
+                    state.setStatus(goalNode, TreeNode.Status.ACTIVE);
                     // activate the plan
-                    pl.setStatus(TreeNode.Status.ACTIVE);
-                    // this goal is added to the backtrack list
-                    backtrackList.add(goalNode);
-                    // the first step in this plan is selected as the current step
-                    currentStep = plans[index].getPlanbody()[0];
+                    state.setStatus(pl, TreeNode.Status.ACTIVE);
+                    // this goal is added to the backtrack list, and the first step in this plan is selected as the
+                    // current step
+                    cursor = cursor.select(index);
                     return pl;
                 }
             }
@@ -201,31 +231,33 @@ public class GoalPlanTree {
      * if the selected action has been executed successfully, then we update the goal-plan tree
      */
     public void success(){
+        TreeNode currentStep = cursor.getStep();
         if(currentStep instanceof ActionNode){
             // cast it to an action
             ActionNode act = (ActionNode) currentStep;
             // set the status to success
-            act.setStatus(TreeNode.Status.SUCCESS);
+            state.setStatus(act, TreeNode.Status.SUCCESS);
             // get the next step of this goal-plan tree
             TreeNode next = act.getNext();
             // a while loop to update the next step, if this action is the last action in a plan
             while (next == null){
 
                 // get the latest goal
-                GoalNode g = backtrackList.remove(backtrackList.size()-1);
+                GoalNode g = cursor.peek();
+                cursor = cursor.pop();
 
                 // this goal is achieved
-                g.setStatus(TreeNode.Status.SUCCESS);
+                state.setStatus(g, TreeNode.Status.SUCCESS);
                 // the plan to achieve this goal also succeed
                 PlanNode[] pls = g.getPlans();
                 for(PlanNode p : pls){
-                    if(p.getStatus().equals(TreeNode.Status.ACTIVE)) {
-                        p.setStatus(TreeNode.Status.SUCCESS);
+                    if(state.getStatus(p).equals(TreeNode.Status.ACTIVE)) {
+                        state.setStatus(p, TreeNode.Status.SUCCESS);
                         break;
                     }
                 }
                 // if g is the top-level goal
-                if(backtrackList.size() == 0){
+                if(cursor.getDepth() == 0){
                     break;
                 }
                 // otherwise, if it is the last action in a plan that is not used to achieve the top-level goal
@@ -235,7 +267,7 @@ public class GoalPlanTree {
                 }
             }
             // set the current step to the next step
-            currentStep = next;
+            cursor = cursor.moveTo(next);
         }else {
             System.out.println("Error: goal-plan tree update error 1");
             System.exit(0);
@@ -244,32 +276,33 @@ public class GoalPlanTree {
 
     public void fail(){
         // the current step fails
-        currentStep.setStatus(TreeNode.Status.FAILURE);
+        state.setStatus(cursor.getStep(), TreeNode.Status.FAILURE);
 
         // if the current step is not the top-level goal
-        if(backtrackList.size() > 0){
+        if(cursor.getDepth() > 0){
             System.out.println("eeeeeeeeeeeeeeeee");
-            System.out.println(backtrackList.get(backtrackList.size()-1).getName());
+            System.out.println(cursor.peek().getName());
 
             // get the latest subgoal
-            GoalNode subgoal = backtrackList.remove(backtrackList.size()-1);
+            GoalNode subgoal = cursor.peek();
+            cursor = cursor.pop();
             // a boolean value indicating if there are other plans to achieve this goal
             boolean available = false;
             // find the active plan
             PlanNode[] pls = subgoal.getPlans();
             for(PlanNode p : pls){
                 // if there is a plan that hasn't been tried
-                if(p.getStatus().equals(TreeNode.Status.DEFAULT)){
+                if(state.getStatus(p).equals(TreeNode.Status.DEFAULT)){
                     available = true;
                 }
                 // set the current active plan to failure
-                else if(p.getStatus().equals(TreeNode.Status.ACTIVE)) {
+                else if(state.getStatus(p).equals(TreeNode.Status.ACTIVE)) {
                     // set it to failure state
-                    p.setStatus(TreeNode.Status.FAILURE);
+                    state.setStatus(p, TreeNode.Status.FAILURE);
                 }
             }
 
-            currentStep = subgoal;
+            cursor = cursor.moveTo(subgoal);
             // if there are still plans haven't been tried
             if(!available){
                 fail();
@@ -282,7 +315,7 @@ public class GoalPlanTree {
      * @return true, if the top-level goal is achieved
      */
     public boolean achieved(){
-        return currentStep == null;
+        return cursor.getStep() == null;
     }
 
 
@@ -316,14 +349,9 @@ public class GoalPlanTree {
 
     @Override
     public GoalPlanTree clone(){
-        GoalPlanTree ng = new GoalPlanTree(this.tlg);
-        ng.currentStep = this.currentStep;
-        // copy the backtracklist
-        ArrayList<GoalNode> bls = new ArrayList<>();
-        for(GoalNode g : backtrackList){
-            bls.add(g);
-        }
-        ng.backtrackList = bls;
+        GoalPlanTree ng = new GoalPlanTree(this.tlg, this.state);
+        // the cursor is immutable, so it is shared with the copy
+        ng.cursor = this.cursor;
 
         return ng;
     }
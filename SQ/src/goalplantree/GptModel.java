@@ -0,0 +1,87 @@
+package goalplantree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The static content of a GPT file: the initial state of the environment and the goal-plan trees of the top-level
+ * goals. The model is read once and never changes, so one copy can be shared by all the runs and agents using the
+ * file, each keeping the state of its execution in its own ExecutionState (see newState()).
+ *
+ * The model numbers its nodes from 0 in depth-first order (a goal, then each of its plans followed by the steps of
+ * the plan), so that the state of a run can be kept in arrays indexed by TreeNode.getIndex().
+ */
+public final class GptModel {
+
+    private final List<Literal> literals;
+    private final List<GoalNode> tlgs;
+    // the nodes by index
+    private final TreeNode[] nodes;
+
+    /**
+     * @param literals the literals of the initial environment
+     * @param tlgs the top-level goals, whose nodes must not belong to another model
+     */
+    public GptModel(List<Literal> literals, List<GoalNode> tlgs){
+        this.literals = Collections.unmodifiableList(new ArrayList<>(literals));
+        this.tlgs = Collections.unmodifiableList(new ArrayList<>(tlgs));
+        ArrayList<TreeNode> ns = new ArrayList<>();
+        for(GoalNode goal : tlgs){
+            number(goal, ns);
+        }
+        nodes = ns.toArray(new TreeNode[0]);
+    }
+
+    private static void number(TreeNode node, ArrayList<TreeNode> nodes){
+        if(node.index >= 0)
+            throw new IllegalArgumentException("node " + node.getName() + " already belongs to a model");
+        node.index = nodes.size();
+        nodes.add(node);
+        if(node instanceof GoalNode){
+            for(PlanNode plan : ((GoalNode) node).getPlans()){
+                number(plan, nodes);
+            }
+        }else if(node instanceof PlanNode){
+            for(TreeNode step : ((PlanNode) node).getPlanbody()){
+                number(step, nodes);
+            }
+        }
+    }
+
+    /**
+     * @return the literals of the initial environment
+     */
+    public List<Literal> getLiterals(){
+        return literals;
+    }
+
+    /**
+     * @return the top-level goals
+     */
+    public List<GoalNode> getTlgs(){
+        return tlgs;
+    }
+
+    /**
+     * @return the number of nodes of the model
+     */
+    public int size(){
+        return nodes.length;
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the node with this index
+     */
+    public TreeNode getNode(int index){
+        return nodes[index];
+    }
+
+    /**
+     * @return the state of a new run, in which no node has been executed or simulated yet
+     */
+    public ExecutionState newState(){
+        return new ExecutionState(nodes.length);
+    }
+}
@@ -0,0 +1,160 @@
+package goalplantree;
+
+/**
+ * An immutable position in a goal-plan tree: the current step and the goals to backtrack to when the plan of the
+ * current step finishes.
+ *
+ * The backtrack goals are kept in a persistent linked stack, so the cursors reached from each other share their
+ * common goals and progressing a cursor only creates the new cursor and at most one new stack frame. A cursor never
+ * changes the status of the tree nodes, which is only done by the goal-plan tree when the agent actually executes
+ * its intentions.
+ */
+public final class IntentionCursor {
+
+    /**
+     * a goal in the backtrack stack
+     */
+    private static final class Frame {
+        final GoalNode goal;
+        final Frame parent;
+        final int depth;
+
+        Frame(GoalNode goal, Frame parent){
+            this.goal = goal;
+            this.parent = parent;
+            this.depth = parent == null ? 1 : parent.depth + 1;
+        }
+    }
+
+    /**
+     * current step, null if the top-level goal has been achieved
+     */
+    private final TreeNode step;
+    /**
+     * the latest goal to backtrack to
+     */
+    private final Frame backtrack;
+
+    private IntentionCursor(TreeNode step, Frame backtrack){
+        this.step = step;
+        this.backtrack = backtrack;
+    }
+
+    /**
+     * @param tlg the top-level goal
+     * @return the cursor at the top-level goal of a goal-plan tree
+     */
+    public static IntentionCursor start(GoalNode tlg){
+        return new IntentionCursor(tlg, null);
+    }
+
+    /**
+     * @return the current step
+     */
+    public TreeNode getStep(){
+        return step;
+    }
+
+    /**
+     * @return the number of goals to backtrack to
+     */
+    public int getDepth(){
+        return backtrack == null ? 0 : backtrack.depth;
+    }
+
+    /**
+     * @return the latest goal to backtrack to, null if there is none
+     */
+    public GoalNode peek(){
+        return backtrack == null ? null : backtrack.goal;
+    }
+
+    /**
+     * copy the goals to backtrack to into an array, from the earliest to the latest one
+     * @param goals the array, it must hold at least getDepth() goals
+     */
+    public void getBacktrack(GoalNode[] goals){
+        for(Frame f = backtrack; f != null; f = f.parent){
+            goals[f.depth - 1] = f.goal;
+        }
+    }
+
+    /**
+     * @param node the new current step
+     * @return the cursor at the given step with the same goals to backtrack to
+     */
+    public IntentionCursor moveTo(TreeNode node){
+        return node == step ? this : new IntentionCursor(node, backtrack);
+    }
+
+    /**
+     * @param goal a goal
+     * @return the cursor at the same step with the given goal added to the goals to backtrack to
+     */
+    public IntentionCursor push(GoalNode goal){
+        return new IntentionCursor(step, new Frame(goal, backtrack));
+    }
+
+    /**
+     * @return the cursor at the same step without the latest goal to backtrack to
+     */
+    public IntentionCursor pop(){
+        return backtrack == null ? this : new IntentionCursor(step, backtrack.parent);
+    }
+
+    /**
+     * select a plan to achieve the current step, which must be a goal
+     * @param index the index of the plan
+     * @return the cursor at the first step of the plan
+     */
+    public IntentionCursor select(int index){
+        GoalNode goal = (GoalNode) step;
+        return new IntentionCursor(goal.getPlans()[index].getPlanbody()[0], new Frame(goal, backtrack));
+    }
+
+    /**
+     * move on after the current step has been achieved, i.e., to the next step in its plan, or to the next step of the
+     * goals to backtrack to if it is the last step of the plan
+     * @return the cursor at the next step, its step is null if the top-level goal has been achieved
+     */
+    public IntentionCursor next(){
+        TreeNode cstep = step.getNext();
+        Frame f = backtrack;
+        // if it is the last step in the plan to achieve a goal
+        while (cstep == null && f != null){
+            // get the next step of its parent goal
+            cstep = f.goal.getNext();
+            f = f.parent;
+        }
+        return new IntentionCursor(cstep, f);
+    }
+
+    /**
+     * @return true, if the given cursor is at the same step with the same goals to backtrack to
+     */
+    @Override
+    public boolean equals(Object o){
+        if(this == o)
+            return true;
+        if(!(o instanceof IntentionCursor))
+            return false;
+        IntentionCursor other = (IntentionCursor) o;
+        if(step != other.step || getDepth() != other.getDepth())
+            return false;
+        // the shared part of the stacks does not need to be compared
+        for(Frame f = backtrack, g = other.backtrack; f != g; f = f.parent, g = g.parent){
+            if(f.goal != g.goal)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode(){
+        int h = System.identityHashCode(step);
+        for(Frame f = backtrack; f != null; f = f.parent){
+            h = 31 * h + System.identityHashCode(f.goal);
+        }
+        return h;
+    }
+}
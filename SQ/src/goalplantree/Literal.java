@@ -10,10 +10,19 @@ public class Literal implements Cloneable{
      * the state of this condition
      */
     boolean state;
+    /**
+     * the interned id of the literal name
+     */
+    final int id;
 
     public Literal(String n, boolean s){
+        this(n, s, LiteralTable.intern(n));
+    }
+
+    private Literal(String n, boolean s, int id){
         this.name = n;
         this.state = s;
+        this.id = id;
     }
 
     /**
@@ -23,6 +32,21 @@ public class Literal implements Cloneable{
         return this.name;
     }
 
+    /**
+     * @return the interned id of the literal name
+     */
+    public int getId(){
+        return this.id;
+    }
+
+    /**
+     * @return the index of this literal in the vectors over the literals in both states, i.e., 2 * id if it is
+     * positive and 2 * id + 1 if it is negative, so that the index of its negation is getIndex() ^ 1
+     */
+    public int getIndex(){
+        return 2 * id + (state ? 0 : 1);
+    }
+
     /**
      * @return the state of this literal
      */
@@ -55,7 +79,7 @@ public class Literal implements Cloneable{
      */
     @Override
     public Literal clone(){
-        return new Literal(name, state);
+        return new Literal(name, state, id);
     }
 
     /**
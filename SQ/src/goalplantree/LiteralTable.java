@@ -0,0 +1,76 @@
+package goalplantree;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author yuanyao
+ *
+ * The table of interned literal names. Every literal name is given a dense integer id the first time it is read, so
+ * that the belief base and the simulation summaries can be indexed by ids instead of names.
+ */
+public final class LiteralTable {
+
+    /**
+     * the id of each interned name
+     */
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    /**
+     * the name of each id
+     */
+    private static volatile String[] names = new String[64];
+    /**
+     * the number of interned names
+     */
+    private static volatile int size = 0;
+
+    private LiteralTable(){
+    }
+
+    /**
+     * @param name the name of a literal
+     * @return the id of this name, a new id is given if it has not been interned yet
+     */
+    public static int intern(String name){
+        Integer id = ids.get(name);
+        if(id != null)
+            return id;
+        synchronized (LiteralTable.class){
+            id = ids.get(name);
+            if(id != null)
+                return id;
+            if(size == names.length){
+                names = Arrays.copyOf(names, size * 2);
+            }
+            names[size] = name;
+            id = size;
+            size = size + 1;
+            ids.put(name, id);
+            return id;
+        }
+    }
+
+    /**
+     * @param name the name of a literal
+     * @return the id of this name, -1 if it has not been interned
+     */
+    public static int find(String name){
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id the id of a literal
+     * @return the name of the literal with this id
+     */
+    public static String nameOf(int id){
+        return names[id];
+    }
+
+    /**
+     * @return the number of interned literal names
+     */
+    public static int size(){
+        return size;
+    }
+}
@@ -6,6 +6,10 @@ public class PlanNode extends TreeNode {
      * precondition
      */
     final private Literal[] prec;
+    /**
+     * precondition compiled into bit masks
+     */
+    final private Condition precondition;
 
     /**
      * plan body
@@ -20,6 +24,7 @@ public class PlanNode extends TreeNode {
     public PlanNode(String name){
         super(name);
         this.prec = new Literal[0];
+        this.precondition = Condition.EMPTY;
         this.body = new TreeNode[0];
     }
 
@@ -32,6 +37,7 @@ public class PlanNode extends TreeNode {
     public PlanNode(String name, Literal[] preconditions, TreeNode[] nodes){
         super(name);
         this.prec = preconditions == null ? new Literal[0] : preconditions;
+        this.precondition = new Condition(this.prec);
         this.body = nodes == null ? new TreeNode[0] : nodes;
         init();
     }
@@ -55,6 +61,13 @@ public class PlanNode extends TreeNode {
         return this.prec;
     }
 
+    /**
+     * @return the compiled precondition of this plan
+     */
+    public Condition getPrecondition(){
+        return this.precondition;
+    }
+
 
     /**
      * @return the plan body of this plan
@@ -78,7 +91,6 @@ public class PlanNode extends TreeNode {
     @Override
     public String onPrintNode(int num){
         String result = "Plan:[type = " + name +
-                        "; status = " + status +
                         "; prec = {";
         for(int i = 0; i < prec.length; i++){
             result += "(" + prec[i].getName() + "," + prec[i].getState() + ");";
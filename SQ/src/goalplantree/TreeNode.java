@@ -1,7 +1,12 @@
 package goalplantree;
 
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * A node of a goal-plan tree. The nodes only hold the static structure of the tree, which is built once and then
+ * shared by every run and every thread: the state of an execution of the tree (the statuses of the nodes and their
+ * QSI totals) is kept by an ExecutionState, indexed by the index of the node in its GptModel.
+ */
 public abstract class TreeNode {
 
     /**
@@ -28,6 +33,16 @@ public abstract class TreeNode {
         }
     };
 
+    /**
+     * the number of tree nodes created so far, used to give each node a unique id
+     */
+    private static final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * the unique id of this node
+     */
+    private final int id = count.getAndIncrement();
+
     /**
      * the parent node
      */
@@ -39,9 +54,9 @@ public abstract class TreeNode {
     protected String name;
 
     /**
-     * the execution status
+     * the index of this node in its model, -1 until it is added to a model
      */
-    protected Status status;
+    int index = -1;
     /**
      * the next step of this node
      */
@@ -53,26 +68,6 @@ public abstract class TreeNode {
     final String indent = "    ";
 
 
-    /**
-     * sim info
-     */
-    /**
-     * the total number of fragile steps in all simulation execution
-     */
-    private HashMap<String, Integer> totSimFrag = new HashMap<>();
-    /**
-     * the total number of steps establishing a literal l
-     */
-    private HashMap<String, Integer> totSimEstab = new HashMap<>();
-    /**
-     * the total length of execution path
-     */
-    private int totSimLength = 0;
-    /**
-     * the total number of simulation from this node
-     */
-    private int totSimNum = 0;
-
     /**
      * constructor
      * @param name name of this node
@@ -80,7 +75,13 @@ public abstract class TreeNode {
     public TreeNode(String name){
         // name
         this.name = name;
-        this.status = Status.DEFAULT;
+    }
+
+    /**
+     * @return the unique id of this node
+     */
+    public int getId(){
+        return id;
     }
 
     /**
@@ -97,22 +98,15 @@ public abstract class TreeNode {
         return this.parent;
     }
 
-    public void setParent(TreeNode node){
+    void setParent(TreeNode node){
         this.parent = node;
     }
 
     /**
-     * @return the current status
-     */
-    public Status getStatus(){
-        return this.status;
-    }
-
-    /**
-     *
+     * @return the index of this node in its model (see GptModel), -1 if it is not in a model
      */
-    public void setStatus(Status state){
-        this.status = state;
+    public int getIndex(){
+        return index;
     }
 
     /**
@@ -126,52 +120,10 @@ public abstract class TreeNode {
      * set the next goal/action
      * @param node
      */
-    public void setNext(TreeNode node){
+    void setNext(TreeNode node){
         this.next = node;
     }
 
-    /**
-     * @return
-     */
-    public HashMap<String, Integer> getTotSimEstab(){
-        return this.totSimEstab;
-    }
-
-    public void setTotSimEstab(HashMap<String, Integer> estab){
-        this.totSimEstab = estab;
-    }
-
-    /**
-     * @return
-     */
-    public HashMap<String, Integer> getTotSimFrag(){
-        return this.totSimFrag;
-    }
-
-    public void setTotSimFrag(HashMap<String, Integer> frag){
-        this.totSimFrag = frag;
-    }
-
-    /**
-     * @return the average length of execution path from this node
-     */
-    public int getTotSimLength(){
-        return this.totSimLength;
-    }
-
-    public void setTotSimLength(int l){
-        this.totSimLength = l;
-    }
-
-    public int getTotSimNum(){
-        return this.totSimNum;
-    }
-
-    public void setTotSimNum(int n){
-        this.totSimNum = n;
-    }
-
-
     /**
      * print the tree node
      * @param num
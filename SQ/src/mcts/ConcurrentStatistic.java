@@ -0,0 +1,133 @@
+package mcts;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Lock-free statistics of a node in a search tree that is shared by several threads. The visits are an atomic
+ * counter, the totals are striped adders and the best result is updated by compare-and-set, so no update from
+ * concurrent back-propagations is lost.
+ *
+ * It also records the virtual losses of the threads currently searching below the node: each pending virtual loss
+ * counts as one visit with value 0, so that the threads selecting after it spread out to other nodes. The virtual
+ * losses are not merged into other statistics (see getRawVisits).
+ *
+ * The fields of Statistic are private to it and stay unused here; every access goes through the getters.
+ */
+public class ConcurrentStatistic extends Statistic {
+
+    /**
+     * the number of times this node has been visited
+     */
+    private final AtomicInteger visits = new AtomicInteger();
+    /**
+     * the number of threads currently searching below this node
+     */
+    private final AtomicInteger virtualLoss = new AtomicInteger();
+    /**
+     * the total simulation values
+     */
+    private final DoubleAdder total = new DoubleAdder();
+    /**
+     * the total squared simulation values
+     */
+    private final DoubleAdder square = new DoubleAdder();
+    /**
+     * the bits of the best simulation result
+     */
+    private final AtomicLong bestBits = new AtomicLong(Double.doubleToLongBits(0));
+
+    public ConcurrentStatistic(){
+        super();
+    }
+
+    /**
+     * @param statistic the statistics to start from
+     */
+    public ConcurrentStatistic(Statistic statistic){
+        super();
+        merge(statistic);
+    }
+
+    @Override
+    public void addValue(double value){
+        addValue(value, 1);
+    }
+
+    @Override
+    public void addValue(double value, int times){
+        total.add(value * times);
+        square.add((value*value) * times);
+        updateBest(value);
+        // visits are updated last, so that a reader never sees a visit without its value
+        visits.addAndGet(times);
+    }
+
+    @Override
+    public void addValues(int times, double total, double square, double max){
+        this.total.add(total);
+        this.square.add(square);
+        updateBest(max);
+        visits.addAndGet(times);
+    }
+
+    @Override
+    public void merge(Statistic other){
+        total.add(other.getTotValue());
+        square.add(other.getTotSquare());
+        updateBest(other.getBest());
+        visits.addAndGet(other.getRawVisits());
+    }
+
+    /**
+     * a thread starts searching below this node
+     */
+    public void addVirtualLoss(){
+        virtualLoss.incrementAndGet();
+    }
+
+    /**
+     * a thread finishes searching below this node
+     */
+    public void removeVirtualLoss(){
+        virtualLoss.decrementAndGet();
+    }
+
+    /**
+     * @return the number of visits, including the pending virtual losses
+     */
+    @Override
+    public int getVisits(){
+        return visits.get() + virtualLoss.get();
+    }
+
+    @Override
+    public int getRawVisits(){
+        return visits.get();
+    }
+
+    @Override
+    public double getTotValue(){
+        return total.sum();
+    }
+
+    @Override
+    public double getTotSquare(){
+        return square.sum();
+    }
+
+    @Override
+    public double getBest(){
+        return Double.longBitsToDouble(bestBits.get());
+    }
+
+    private void updateBest(double value){
+        long current = bestBits.get();
+        while (value > Double.longBitsToDouble(current)){
+            if(bestBits.compareAndSet(current, Double.doubleToLongBits(value)))
+                return;
+            current = bestBits.get();
+        }
+    }
+}
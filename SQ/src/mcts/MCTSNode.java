@@ -0,0 +1,598 @@
+package mcts;
+
+import agent.BeliefBaseImp;
+import agent.Choice;
+import goalplantree.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * The part of a node of an MCTS search tree that does not depend on how the tree is searched: the choices, child
+ * nodes and statistic of the node, the state of the search in the root node, and the parallel drivers that run
+ * the search of the node type N on several threads.
+ * @param <N> the type of the nodes of the search tree
+ */
+public abstract class MCTSNode<N extends MCTSNode<N>> {
+    /**
+     * static parameters
+     */
+    // a small value to break the tie and to divided by 0
+    static final double epsilon = 1e-6;
+
+    // the expansion states of a node in a tree shared by several threads
+    static final int UNEXPANDED = 0;
+    static final int EXPANDING = 1;
+    static final int EXPANDED = 2;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<MCTSNode> EXPANSION =
+            AtomicIntegerFieldUpdater.newUpdater(MCTSNode.class, "expansion");
+
+    /**
+     * the state of the search, only set in the root node
+     */
+    SearchContext ctx;
+
+    /**
+     * the choices which leads the parent node to this node (i.e., the edge that connects the parent state to this node)
+    (we do not copy and record the agent's mental state to avoid duplication and to save space)
+     */
+    ArrayList<Choice> choices;
+
+    /**
+     * children of this node
+     */
+    volatile ArrayList<N> children = new ArrayList<>();
+
+    /**
+     * the expansion state of this node, only used when the tree is shared by several threads
+     */
+    private volatile int expansion = UNEXPANDED;
+
+    /**
+     * statistics
+     */
+    Statistic statistic = new Statistic();
+
+    /**
+     * constructor for the root node of a search with the given state
+     * @param context the state of the search
+     */
+    protected MCTSNode(SearchContext context){
+        ctx = context;
+        choices = new ArrayList<>();
+    }
+
+    /**
+     * constructor for other nodes
+     * @param c the choices which leads its parent node to this node
+     */
+    protected MCTSNode(ArrayList<Choice> c){
+        choices = c;
+    }
+
+    /**
+     * @param context the state of a new search
+     * @return a root node of the same type as this node
+     */
+    protected abstract N createRoot(SearchContext context);
+
+    /**
+     * @param c the choices which lead this node to the new node
+     * @return a new child node of this node
+     */
+    protected abstract N createChild(ArrayList<Choice> c);
+
+    /**
+     * @return true, if this node is a leaf node; false, otherwise.
+     */
+    public boolean isLeaf(){
+        return children.size() == 0;
+    }
+
+    /**
+     * @return the number of child nodes
+     */
+    public int arity(){
+        return children.size();
+    }
+
+    /**
+     * run the beta simulations of each iteration in parallel on the given pool (leaf-parallel MCTS). The results of
+     * the simulations are back-propagated once per iteration.
+     * @param pool the pool to run the simulations, null to run them one after another
+     */
+    public void setLeafParallel(ForkJoinPool pool){
+        ctx.leafPool = pool;
+    }
+
+    /**
+     * run n independent searches from the state of this root node on the given pool, and merge the statistics of
+     * their root children and their best simulations into this node (root-parallel MCTS)
+     * @param n the number of search trees
+     * @param pool the pool to run the searches
+     * @param search runs the search from a new root node, in its own context
+     */
+    void searchRoots(int n, ForkJoinPool pool, Consumer<N> search){
+        // create a root node for each search
+        List<N> roots = new ArrayList<>();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for(int i = 0; i < n; i++){
+            N root = createRoot(ctx.forkSearch(i));
+            roots.add(root);
+            tasks.add(pool.submit(() -> search.accept(root)));
+        }
+        // wait for all searches to finish
+        for(ForkJoinTask<?> task : tasks){
+            task.join();
+        }
+        // merge the results
+        for(N root : roots){
+            merge(root);
+        }
+    }
+
+    /**
+     * merge the root statistics of another search from the same state into this root node
+     * @param root the root node of the other search
+     */
+    private void merge(N root){
+        statistic.merge(root.statistic);
+        for(N child : root.children){
+            N same = null;
+            for(N c : children){
+                if(c.choices.equals(child.choices)){
+                    same = c;
+                    break;
+                }
+            }
+            // the first search that expands a choice provides its subtree
+            if(same == null){
+                children.add(child);
+            }else {
+                same.statistic.merge(child.statistic);
+            }
+        }
+        ctx.merge(root.ctx);
+    }
+
+    /**
+     * run n threads on the search tree of this root node at the same time on the given pool (tree-parallel MCTS),
+     * each in its own context, and merge their best simulations and counters into the context of this node
+     * @param n the number of threads
+     * @param pool the pool to run the threads
+     * @param search runs the iterations of a thread in the given context
+     */
+    void searchTree(int n, ForkJoinPool pool, Consumer<SearchContext> search){
+        // the statistics of the tree must support concurrent updates
+        share();
+        List<SearchContext> contexts = new ArrayList<>();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for(int i = 0; i < n; i++){
+            SearchContext context = ctx.fork();
+            contexts.add(context);
+            tasks.add(pool.submit(() -> search.accept(context)));
+        }
+        // wait for all threads to finish
+        for(ForkJoinTask<?> task : tasks){
+            task.join();
+        }
+        // merge the best simulations and counters
+        for(SearchContext context : contexts){
+            ctx.merge(context);
+        }
+    }
+
+    /**
+     * prepare this tree to be shared by several threads
+     */
+    private void share(){
+        Map<Statistic, Statistic> converted = new IdentityHashMap<>();
+        share(converted);
+        if(ctx.table != null)
+            ctx.table.convert(converted);
+    }
+
+    /**
+     * prepare this subtree to be shared by several threads
+     * @param converted the concurrent version of each statistic converted so far, so that the nodes of a transposition
+     *                  keep sharing their statistic
+     */
+    void share(Map<Statistic, Statistic> converted){
+        if(!(statistic instanceof ConcurrentStatistic))
+            statistic = converted.computeIfAbsent(statistic, ConcurrentStatistic::new);
+        if(!isLeaf())
+            expansion = EXPANDED;
+        for(N child : children){
+            child.share(converted);
+        }
+    }
+
+    /**
+     * add a node to the nodes visited by an iteration. If the tree is shared by several threads, the node also gets a
+     * virtual loss, so that the other threads spread over the tree until the iteration releases it.
+     * @param node the node selected
+     * @param visited the nodes visited in the iteration
+     * @param shared true, if the tree is searched by several threads at the same time
+     */
+    static <N extends MCTSNode<N>> void visit(N node, List<N> visited, boolean shared){
+        visited.add(node);
+        if(shared)
+            ((ConcurrentStatistic) node.statistic).addVirtualLoss();
+    }
+
+    /**
+     * release the virtual losses of the nodes visited by an iteration in a tree shared by several threads
+     * @param visited the nodes visited in the iteration
+     */
+    static <N extends MCTSNode<N>> void release(List<N> visited){
+        for(N node : visited){
+            ((ConcurrentStatistic) node.statistic).removeVirtualLoss();
+        }
+    }
+
+    /**
+     * expand this node by adding all its possible child nodes, which share the statistics of their transpositions. In
+     * a tree shared by several threads, only the first thread expands the node, and the child nodes are only visible
+     * to the other threads once all of them are created.
+     * @param ctx the state of the search
+     * @param sgpts the goal-plan trees of this node
+     * @param sbeliefs the belief base of this node
+     * @param shared true, if the tree is searched by several threads at the same time
+     * @return true, if the node was expanded by this thread
+     */
+    boolean expand(SearchContext ctx, GoalPlanTree[] sgpts, BeliefBaseImp sbeliefs, boolean shared){
+        if(!shared){
+            expand(sgpts, sbeliefs, children);
+            transpose(ctx, sgpts, sbeliefs, children);
+            return true;
+        }
+        if(EXPANSION.compareAndSet(this, UNEXPANDED, EXPANDING)){
+            ArrayList<N> nodes = new ArrayList<>();
+            expand(sgpts, sbeliefs, nodes);
+            for(N node : nodes){
+                node.statistic = new ConcurrentStatistic();
+            }
+            transpose(ctx, sgpts, sbeliefs, nodes);
+            children = nodes;
+            expansion = EXPANDED;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true, if this node has been expanded in a tree shared by several threads; false, if another thread is
+     * still expanding it
+     */
+    boolean isExpanded(){
+        return expansion == EXPANDED;
+    }
+
+    /**
+     * let the new child nodes share the statistics of the nodes of the same states in the transposition table
+     * @param ctx the state of the search
+     * @param sgpts the goal-plan trees of the parent node
+     * @param sbeliefs the belief base of the parent node
+     * @param nodes the new child nodes
+     */
+    private void transpose(SearchContext ctx, GoalPlanTree[] sgpts, BeliefBaseImp sbeliefs, ArrayList<N> nodes){
+        if(ctx.table == null || nodes.isEmpty())
+            return;
+        long key = TranspositionTable.key(sgpts, sbeliefs);
+        for(N node : nodes){
+            node.statistic = ctx.table.share(TranspositionTable.key(key, sgpts, sbeliefs, node.choices), node.statistic);
+        }
+    }
+
+    /**
+     * expand the current node by adding child nodes to it
+     * @param nodes the list the child nodes are added to
+     */
+    private void expand(GoalPlanTree[] sgpts, BeliefBaseImp sbeliefs, ArrayList<N> nodes){
+
+        // check all intentions
+        for(int i = 0; i < sgpts.length; i++){
+            // get the current step of the selected intention
+            TreeNode cStep = sgpts[i].getCurrentStep();
+
+            // if the current step of this intention is a subgoal
+            if(cStep instanceof GoalNode){
+                // cast it to a goal
+                GoalNode sg = (GoalNode) cStep;
+                // get the list of choices corresponding to different mcts nodes
+                int[][] sChoice = Transitions.getPosChoices(sg, sbeliefs);
+
+                // for each of these lists, generate an MCTS node
+                for(int[] lists : sChoice){
+                    // create a choice list
+                    ArrayList<Choice> ncs = new ArrayList<>();
+                    // add all plan choices
+                    for(int l : lists){
+                        Choice c = new Choice(i, l);
+                        ncs.add(c);
+                    }
+                    // add the last action choice
+                    Choice ca = new Choice(i);
+                    ncs.add(ca);
+                    // create the MCTS node
+                    N child = createChild(ncs);
+                    nodes.add(child);
+                }
+
+            }
+            // if the current step of this intention is an action
+            else if(cStep instanceof ActionNode){
+                // cast it to action
+                ActionNode act = (ActionNode) cStep;
+                // if its precondition holds
+                if(sbeliefs.evaluate(act.getPrecondition()) == 1){
+                    ArrayList<Choice> ncs = new ArrayList<>();
+                    // new intention choice
+                    Choice c = new Choice(i);
+                    ncs.add(c);
+                    // create new MCTS node
+                    N child = createChild(ncs);
+                    // add it as the child of this node
+                    nodes.add(child);
+                }
+            }
+        }
+
+
+    }
+
+    /**
+     * run beta simulations from the state of the node selected for simulation, and back-propagate their results to
+     * the visited nodes. If the search has a leaf pool, the simulations run in parallel (leaf-parallel MCTS) and are
+     * back-propagated at once.
+     * @param ctx the state of the search
+     * @param sGPTs the goal-plan trees of the node to simulate from
+     * @param sBeliefs the belief base of the node to simulate from
+     * @param cs the choices leading the root node to the node to simulate from
+     * @param visited the nodes visited in this iteration
+     * @param t the time at which the simulation phase started, if the metrics of the search are recorded
+     * @return the time at which the simulations and their back-propagation ended, if the metrics are recorded
+     */
+    long simulate(SearchContext ctx, int beta, GoalPlanTree[] sGPTs, BeliefBaseImp sBeliefs, ArrayList<Choice> cs,
+                  List<N> visited, long t){
+        SearchMetrics m = ctx.metrics;
+        // every rollout of the search is counted here
+        ctx.simNum += beta;
+        if(ctx.leafPool == null || beta < 2){
+            for(int j = 0; j < beta; j++){
+                double sValue = rollOut(ctx, sGPTs, sBeliefs, cs);
+                if(m != null){
+                    t = m.phase(SearchMetrics.ROLLOUT, t);
+                    m.rollouts++;
+                }
+                /**
+                 * back-propagation
+                 */
+                for(N node : visited){
+                    node.statistic.addValue(sValue);
+                }
+                if(m != null)
+                    t = m.phase(SearchMetrics.BACKPROPAGATION, t);
+            }
+            return t;
+        }
+
+        // leaf-parallel: every simulation copies the state of the node and has its own random stream
+        List<SearchContext> leaves = new ArrayList<>(beta);
+        List<ForkJoinTask<Double>> tasks = new ArrayList<>(beta);
+        for(int j = 0; j < beta; j++){
+            SearchContext leaf = ctx.fork();
+            leaves.add(leaf);
+            tasks.add(ctx.leafPool.submit(() -> rollOut(leaf, sGPTs, sBeliefs, cs)));
+        }
+        // aggregate the results in the order of the simulations
+        double total = 0;
+        double square = 0;
+        double max = 0;
+        for(int j = 0; j < beta; j++){
+            double sValue = tasks.get(j).join();
+            total += sValue;
+            square += sValue * sValue;
+            if(sValue > max)
+                max = sValue;
+            ctx.merge(leaves.get(j));
+        }
+        if(m != null){
+            t = m.phase(SearchMetrics.ROLLOUT, t);
+            m.rollouts += beta;
+        }
+        /**
+         * back-propagation, once for all the simulations
+         */
+        for(N node : visited){
+            node.statistic.addValues(beta, total, square, max);
+        }
+        if(m != null)
+            t = m.phase(SearchMetrics.BACKPROPAGATION, t);
+        return t;
+    }
+
+    /**
+     * @return the simulation rollouts, run by the rollout engine of the current thread
+     */
+    private double rollOut(SearchContext ctx, GoalPlanTree[] gpts, BeliefBaseImp beliefs, ArrayList<Choice> sChoices){
+        return RolloutEngine.get().rollOut(ctx, gpts, beliefs, sChoices);
+    }
+
+    /**
+     * re-root the search tree at the child node reached by the executed choices, so that the search from the next
+     * state starts with the statistics of its subtree. The state of this root node must not have been changed since
+     * its search.
+     * @param executed the choices executed since the search of this node
+     * @param trees the goal-plan trees of the next state
+     * @param bb the belief base of the next state
+     * @return the root node of the search from the next state, null if there is no such child or the next state is
+     * not the one expected after the choices (e.g., the percepts contradict the postconditions of the action)
+     */
+    public N reroot(ArrayList<Choice> executed, GoalPlanTree[] trees, BeliefBaseImp bb){
+        N child = null;
+        for(N c : children){
+            if(c.choices.equals(executed)){
+                child = c;
+                break;
+            }
+        }
+        if(child == null)
+            return null;
+        // the expected state after the choices
+        GoalPlanTree[] eGPTs = new GoalPlanTree[ctx.gpts.length];
+        for(int x = 0; x < ctx.gpts.length; x++){
+            eGPTs[x] = ctx.gpts[x].clone();
+        }
+        BeliefBaseImp eBeliefs = ctx.beliefs.clone();
+        for(Choice c : executed){
+            Transitions.biUpdate(c, eGPTs, eBeliefs);
+        }
+        if(!SearchContext.sameState(eGPTs, eBeliefs, trees, bb))
+            return null;
+        // the subtree of the child becomes the tree of the new root
+        N root = createRoot(new SearchContext(trees, bb, new Random(ctx.rm.nextLong())));
+        // the states in the transposition table are not changed by the choices
+        root.ctx.table = ctx.table;
+        root.children = child.children;
+        root.statistic = child.statistic;
+        return root;
+    }
+
+    /**
+     * stop the search at the given time, even if it has not run all its iterations. The deadline is checked every few
+     * iterations, so the search may take slightly longer.
+     * @param deadline the time (System.nanoTime()) at which the search stops, Long.MAX_VALUE to run all iterations
+     */
+    public void setDeadline(long deadline){
+        ctx.deadline = deadline;
+    }
+
+    /**
+     * record the metrics of the searches of this root node
+     * @param metrics the metrics to record into, null to not record them
+     */
+    public void setMetrics(SearchMetrics metrics){
+        ctx.metrics = metrics;
+    }
+
+    /**
+     * record the size and the depth of the search tree of this root node in the metrics of its search
+     */
+    void measure(){
+        SearchMetrics m = ctx.metrics;
+        if(m == null)
+            return;
+        m.treeSize = 0;
+        m.treeDepth = 0;
+        measure(m, 0);
+    }
+
+    void measure(SearchMetrics m, int depth){
+        m.treeSize++;
+        if(depth > m.treeDepth)
+            m.treeDepth = depth;
+        for(N child : children){
+            child.measure(m, depth + 1);
+        }
+    }
+
+    /**
+     * @return the number of iterations completed by the search of this root node
+     */
+    public int getIterations(){
+        return ctx.iterations;
+    }
+
+    /**
+     * @return the number of simulations run by the search of this root node
+     */
+    public int getRollouts(){
+        return ctx.simNum;
+    }
+
+    /**
+     * use a transposition table, so that the nodes of the same state share their statistics. The table must be empty,
+     * or hold the statistics of this tree (e.g., after reroot).
+     * @param table the transposition table, null to not use a transposition table
+     */
+    public void setTranspositionTable(TranspositionTable table){
+        ctx.table = table;
+    }
+
+    /**
+     * @return the number of times a node has shared the statistic of a transposition
+     */
+    public int getTranspositionHits(){
+        return ctx.table == null ? 0 : ctx.table.getHits();
+    }
+
+    public Statistic getStatistic(){
+        return this.statistic;
+    }
+
+    public double getAchievedNum(){
+        return utility(ctx.gpts);
+    }
+
+    double utility(GoalPlanTree[] gpts){
+        double num = 0;
+        for(GoalPlanTree gpt : gpts){
+            if(gpt == null || gpt.getCurrentStep() == null){
+                num++;
+            }
+        }
+        return num;
+    }
+
+    /**
+     * @return the best choices
+     */
+    public ArrayList<Choice> bestChoice(){
+        // if the root node cannot be expanded any further
+        if(this.children.size() == 0){
+            return new ArrayList<>();
+        }
+        // otherwise, find the child node that has been visited most
+        else {
+            int maxVisit = this.children.get(0).statistic.getVisits();
+            double best = this.children.get(0).statistic.getBest();
+            double total = this.children.get(0).statistic.getTotValue();
+            double average = this.children.get(0).statistic.getTotValue() / this.children.get(0).statistic.getVisits();
+            N bestChild = this.children.get(0);
+            for(N child: children){
+                if(child.statistic.getTotValue() / child.statistic.getVisits() > average){
+                //if(child.statistic.getTotValue() > total){
+                //if(child.statistic.getVisits() > maxVisit){
+                //if(child.statistic.getBest() > best){
+                    maxVisit = child.statistic.getVisits();
+                    best = child.statistic.getBest();
+                    total = child.statistic.getTotValue();
+                    average = child.statistic.getTotValue() / child.statistic.getVisits();
+                    bestChild = child;
+                }
+            }
+
+            System.out.println("best: " + best);
+            return bestChild.choices;
+
+        }
+    }
+
+
+    public ArrayList<Choice> getAllChoices(){
+        return ctx.bChoices;
+    }
+
+    public double getAllBestResult(){
+        return ctx.bResult;
+    }
+}
@@ -0,0 +1,230 @@
+package mcts;
+
+import agent.BeliefBaseImp;
+import agent.Choice;
+import goalplantree.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs the random simulations (rollouts) of the MCTS nodes without allocating objects.
+ *
+ * Each thread owns one engine whose scratch state is reused by all its rollouts: the current step and the backtrack
+ * stack of every intention are kept in arrays, the beliefs are copied into a reusable belief base, and the choices of
+ * a rollout are recorded as pairs of integers. The list of choices is only created when the rollout is better than
+ * the best simulation of the search.
+ */
+public final class RolloutEngine {
+
+    private static final ThreadLocal<RolloutEngine> engines = ThreadLocal.withInitial(RolloutEngine::new);
+
+    // the current step of each intention
+    private TreeNode[] steps = new TreeNode[0];
+    // the backtrack stack of each intention
+    private GoalNode[][] stacks = new GoalNode[0][];
+    // the depth of each backtrack stack
+    private int[] depths = new int[0];
+    // the available intentions
+    private int[] indexes = new int[0];
+    // the available plans to achieve a goal
+    private int[] plans = new int[8];
+    // the belief base of the simulation
+    private final BeliefBaseImp sbb = new BeliefBaseImp();
+    // the choices made in the simulation, the plan choice is -1 for an action execution
+    private int[] intentionChoices = new int[64];
+    private int[] planChoices = new int[64];
+    private int length;
+    // the number of intentions in the simulation
+    private int count;
+
+    private RolloutEngine(){
+    }
+
+    /**
+     * @return the engine of the current thread
+     */
+    public static RolloutEngine get(){
+        return engines.get();
+    }
+
+    /**
+     * run a random simulation from the given state until no intention can progress any further
+     * @param ctx the state of the search, its best simulation is updated if this one is better
+     * @param gpts the intentions at the start of the simulation
+     * @param beliefs the beliefs at the start of the simulation
+     * @param sChoices the choices that lead the root node to the start of the simulation
+     * @return the number of goals achieved at the end of the simulation
+     */
+    public double rollOut(SearchContext ctx, GoalPlanTree[] gpts, BeliefBaseImp beliefs, ArrayList<Choice> sChoices){
+        Random rm = ctx.rm;
+        int n = load(gpts, beliefs);
+        length = 0;
+
+        // the simulation stops only when all intention becomes non-progressable
+        intentionloop:
+        while (n > 0){
+            // randomly pick an intention
+            int index = remove(indexes, n--, rm.nextInt(n + 1));
+            // the choices of this intention start here, they are dropped if it cannot execute an action
+            int mark = length;
+
+            TreeNode currentStep = steps[index];
+            goalloop:
+            while(currentStep instanceof GoalNode){
+                PlanNode[] pls = ((GoalNode) currentStep).getPlans();
+                // initially all plans are available
+                if(plans.length < pls.length)
+                    plans = new int[pls.length];
+                for(int x = 0; x < pls.length; x++){
+                    plans[x] = x;
+                }
+                int m = pls.length;
+                while (m > 0){
+                    // randomly select a plan
+                    int pi = remove(plans, m--, rm.nextInt(m + 1));
+                    PlanNode pl = pls[pi];
+                    // if its precondition holds
+                    if(sbb.evaluate(pl.getPrecondition()) == 1){
+                        // current step becomes the first step in the selected plan
+                        currentStep = pl.getPlanbody()[0];
+                        record(index, pi);
+                        continue goalloop;
+                    }
+                }
+                // if there is no applicable plans, then select another intention
+                length = mark;
+                continue intentionloop;
+            }
+
+            if(currentStep instanceof ActionNode){
+                ActionNode act = (ActionNode) currentStep;
+                // if its precondition holds
+                if(sbb.evaluate(act.getPrecondition()) == 1){
+                    record(index, -1);
+                    // apply the plan choices and execute the action
+                    for(int k = mark; k < length - 1; k++){
+                        GoalNode goal = (GoalNode) steps[index];
+                        push(index, goal);
+                        steps[index] = goal.getPlans()[planChoices[k]].getPlanbody()[0];
+                    }
+                    execute(index, act);
+                    // reset the list of available intentions
+                    n = available();
+                }
+                // if this action cannot be executed, the choices so far are dropped
+                else {
+                    length = mark;
+                }
+            }
+        }
+
+        // when there is no intention can be executed further, return the simulation score according to the utility function
+        double uResult = 0;
+        for(int i = 0; i < count; i++){
+            if(steps[i] == null)
+                uResult++;
+        }
+
+        // if this simulation performs better than previous run
+        if(uResult > ctx.bResult){
+            ArrayList<Choice> temp = new ArrayList<>(sChoices.size() + length);
+            temp.addAll(sChoices);
+            for(int k = 0; k < length; k++){
+                temp.add(planChoices[k] < 0 ? new Choice(intentionChoices[k]) : new Choice(intentionChoices[k], planChoices[k]));
+            }
+            ctx.bResult = uResult;
+            ctx.bChoices = temp;
+        }
+        return uResult;
+    }
+
+    /**
+     * copy the given state into the scratch state of this engine
+     * @return the number of available intentions
+     */
+    private int load(GoalPlanTree[] gpts, BeliefBaseImp beliefs){
+        int size = gpts.length;
+        count = size;
+        if(steps.length < size){
+            steps = new TreeNode[size];
+            stacks = Arrays.copyOf(stacks, size);
+            depths = new int[size];
+            indexes = new int[size];
+        }
+        for(int i = 0; i < size; i++){
+            IntentionCursor cursor = gpts[i].getCursor();
+            steps[i] = cursor.getStep();
+            depths[i] = cursor.getDepth();
+            if(stacks[i] == null || stacks[i].length < depths[i])
+                stacks[i] = new GoalNode[Math.max(8, Integer.highestOneBit(depths[i]) << 1)];
+            cursor.getBacktrack(stacks[i]);
+        }
+        sbb.copyFrom(beliefs);
+        return available();
+    }
+
+    /**
+     * @return the number of intentions that have not been achieved, their indexes are put in the list
+     */
+    private int available(){
+        int n = 0;
+        for(int x = 0; x < count; x++){
+            if(steps[x] != null)
+                indexes[n++] = x;
+        }
+        return n;
+    }
+
+    /**
+     * execute an action of an intention, and move the intention to its next step
+     */
+    private void execute(int index, ActionNode act){
+        // apply its postcondition
+        sbb.update(act.getPostcondition());
+        // get next step
+        TreeNode cstep = act.getNext();
+        // if it is the last step in the plan to achieve a goal
+        while(cstep == null){
+            // if it is the top-level goal
+            if(depths[index] == 0)
+                break;
+            // get its parent goal
+            cstep = stacks[index][--depths[index]].getNext();
+        }
+        steps[index] = cstep;
+    }
+
+    private void push(int index, GoalNode goal){
+        GoalNode[] stack = stacks[index];
+        if(stack == null || stack.length == depths[index]){
+            stack = stack == null ? new GoalNode[8] : Arrays.copyOf(stack, stack.length * 2);
+            stacks[index] = stack;
+        }
+        stack[depths[index]++] = goal;
+    }
+
+    private void record(int intention, int plan){
+        if(length == intentionChoices.length){
+            intentionChoices = Arrays.copyOf(intentionChoices, length * 2);
+            planChoices = Arrays.copyOf(planChoices, length * 2);
+        }
+        intentionChoices[length] = intention;
+        planChoices[length] = plan;
+        length++;
+    }
+
+    /**
+     * remove an element from a list while keeping the order of the others
+     * @param list the list
+     * @param size the size of the list
+     * @param i the position of the element
+     * @return the element
+     */
+    private static int remove(int[] list, int size, int i){
+        int e = list[i];
+        System.arraycopy(list, i + 1, list, i, size - i - 1);
+        return e;
+    }
+}
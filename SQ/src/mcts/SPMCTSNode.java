@@ -5,6 +5,7 @@ import agent.Choice;
 import goalplantree.GoalPlanTree;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 public class SPMCTSNode extends BasicMCTSNode{
 
@@ -22,6 +23,16 @@ public class SPMCTSNode extends BasicMCTSNode{
         super(trees,bb);
     }
 
+    /**
+     * constructor for the root node of a search with the given random stream
+     * @param trees the set of goal-plan trees in the current state
+     * @param bb
+     * @param rm the random stream of the search
+     */
+    public SPMCTSNode(GoalPlanTree[] trees, BeliefBaseImp bb, Random rm){
+        super(trees, bb, rm);
+    }
+
     /**
      * constructor for the root node
      * @param trees the set of goal-plan trees in the current state
@@ -31,6 +42,14 @@ public class SPMCTSNode extends BasicMCTSNode{
         super(trees,bb);
     }
 
+    /**
+     * constructor for the root node of a search with the given state
+     * @param context the state of the search
+     */
+    protected SPMCTSNode(SearchContext context){
+        super(context);
+    }
+
     /**
      * constructor for other nodes
      * @param c the choices which leads its parent node to this node
@@ -39,9 +58,13 @@ public class SPMCTSNode extends BasicMCTSNode{
         super(c);
     }
 
+    @Override
+    protected BasicMCTSNode createRoot(SearchContext context){
+        return new SPMCTSNode(context);
+    }
 
     @Override
-    protected BasicMCTSNode select(){
+    protected BasicMCTSNode select(SearchContext ctx){
         // initialisation
         BasicMCTSNode selected = null;
 
@@ -49,16 +72,17 @@ public class SPMCTSNode extends BasicMCTSNode{
         // calculate the uct value for each of its selected nodes
         for(int i = 0; i < children.size(); i++){
 
+            // read the statistics of the child node once, as they might be updated by other threads
+            Statistic stat = children.get(i).statistic;
+            int visits = stat.getVisits();
+            double mean = stat.getTotValue()/ (visits + epsilon);
+            // the deviation term is kept non-negative in case the totals are read in the middle of an update
+            double deviation = Math.max(0, stat.getTotSquare() - visits * mean * mean + constD);
+
             // UCT calculation for single player MCTS
-            double uctValue =
-                    children.get(i).statistic.totValue/ (children.get(i).statistic.nVisits + epsilon)
-                    + constC * Math.sqrt(Math.log(statistic.nVisits + 1)/(children.get(i).statistic.nVisits + epsilon))+ rm.nextDouble() * epsilon
-                    + Math.sqrt(
-                            (children.get(i).statistic.totSquare - children.get(i).statistic.nVisits *
-                            (children.get(i).statistic.totValue/(children.get(i).statistic.nVisits + epsilon))*
-                            (children.get(i).statistic.totValue/(children.get(i).statistic.nVisits + epsilon))
-                                    + constD)
-                                    / (children.get(i).statistic.nVisits + epsilon));
+            double uctValue = mean
+                    + constC * Math.sqrt(Math.log(statistic.getVisits() + 1)/(visits + epsilon))+ ctx.rm.nextDouble() * epsilon
+                    + Math.sqrt(deviation / (visits + epsilon));
             // compare the uct value with the current maximum value
             if(uctValue > bestUCT){
                 selected = children.get(i);
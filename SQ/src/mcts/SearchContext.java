@@ -0,0 +1,191 @@
+package mcts;
+
+import agent.BeliefBaseImp;
+import agent.Choice;
+import goalplantree.GoalPlanTree;
+import simulation.ConflictsCalculator;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The state of one MCTS search, i.e., the mental state in the root node, the random stream and the best simulation
+ * found so far. Every search tree has its own context, so that several searches can run at the same time.
+ */
+public class SearchContext {
+
+    // the number of iterations between two checks of the deadline
+    static final int CHECK_INTERVAL = 16;
+
+    // random seed
+    final Random rm;
+    // the goal-plan trees of the initial state in the root node
+    final GoalPlanTree[] gpts;
+    // the belief base of the initial state in the root node
+    final BeliefBaseImp beliefs;
+    // the conflicts calculator used for the QSI check
+    final ConflictsCalculator cc;
+    // best simulation choices
+    ArrayList<Choice> bChoices;
+    // best simulation result
+    double bResult;
+
+    // the pool running the simulations of an iteration in parallel, null if they run one after another
+    ForkJoinPool leafPool;
+    // the transposition table of the search tree, null if the nodes of the same state do not share their statistics
+    TranspositionTable table;
+
+    // the time (System.nanoTime()) at which the search stops, Long.MAX_VALUE if it runs all its iterations
+    long deadline = Long.MAX_VALUE;
+    // the metrics of the search, null if they are not recorded
+    SearchMetrics metrics;
+
+    // the number of iterations that are completed
+    int iterations = 0;
+    // the number of simulations that are actually run
+    int simNum = 0;
+    // the number of QSI estimations back-propagated as simulation results
+    int fakeNum = 0;
+
+    /**
+     * constructor
+     * @param trees the set of goal-plan trees in the root node
+     * @param bb the belief base in the root node
+     * @param rm the random stream of this search
+     */
+    public SearchContext(GoalPlanTree[] trees, BeliefBaseImp bb, Random rm){
+        this(trees, bb, rm, new ConflictsCalculator(rm));
+    }
+
+    private SearchContext(GoalPlanTree[] trees, BeliefBaseImp bb, Random rm, ConflictsCalculator cc){
+        this.gpts = trees;
+        this.beliefs = bb;
+        this.rm = rm;
+        this.cc = cc;
+        this.bChoices = new ArrayList<>();
+        this.bResult = -1;
+    }
+
+    /**
+     * @param trees the set of goal-plan trees in the root node
+     * @param bb the belief base in the root node
+     */
+    public SearchContext(GoalPlanTree[] trees, BeliefBaseImp bb){
+        this(trees, bb, new Random());
+    }
+
+    /**
+     * @return a new context for another thread searching the same tree, with its own random stream and conflicts
+     * calculator
+     */
+    SearchContext fork(){
+        Random random = new Random(rm.nextLong());
+        // the searches share the QSI of the intentions they reach
+        SearchContext context = new SearchContext(gpts, beliefs, random, cc.fork(random));
+        context.leafPool = leafPool;
+        context.table = table;
+        context.deadline = deadline;
+        if(metrics != null)
+            context.metrics = new SearchMetrics();
+        return context;
+    }
+
+    /**
+     * @param i the index of the search among the searches from the same root state
+     * @return a new context for an independent search tree from the same root state, with its own random stream and
+     * transposition table (see TranspositionTable.fork)
+     */
+    SearchContext forkSearch(int i){
+        SearchContext context = fork();
+        if(table != null)
+            context.table = table.fork(i);
+        return context;
+    }
+
+    /**
+     * merge the best simulation and the counters and metrics of another search into this one
+     * @param other the context of the other search
+     */
+    void merge(SearchContext other){
+        if(other.bResult > bResult){
+            bResult = other.bResult;
+            bChoices = other.bChoices;
+        }
+        iterations += other.iterations;
+        simNum += other.simNum;
+        fakeNum += other.fakeNum;
+        if(metrics != null && other.metrics != null)
+            metrics.merge(other.metrics);
+    }
+
+    /**
+     * check whether the search has run out of time. The clock is only read once every CHECK_INTERVAL iterations, and
+     * the first iteration always runs so that the root node is expanded.
+     * @param i the number of iterations run by the current thread
+     * @return true, if the deadline has passed
+     */
+    boolean expired(int i){
+        return deadline != Long.MAX_VALUE && i > 0 && i % CHECK_INTERVAL == 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @param expected the goal-plan trees of the expected state
+     * @param expectedBeliefs the belief base of the expected state
+     * @param trees the goal-plan trees of a state
+     * @param bb the belief base of a state
+     * @return true, if the given state is the expected one
+     */
+    static boolean sameState(GoalPlanTree[] expected, BeliefBaseImp expectedBeliefs, GoalPlanTree[] trees, BeliefBaseImp bb){
+        if(expected.length != trees.length)
+            return false;
+        for(int i = 0; i < trees.length; i++){
+            if(expected[i].getTlg() != trees[i].getTlg() || !expected[i].getCursor().equals(trees[i].getCursor()))
+                return false;
+        }
+        return expectedBeliefs.equals(bb);
+    }
+
+    /**
+     * forget the best simulation found so far
+     */
+    public void reset(){
+        bChoices = new ArrayList<>();
+        bResult = -1;
+    }
+
+    /**
+     * @return the best simulation choices
+     */
+    public ArrayList<Choice> getBestChoices(){
+        return bChoices;
+    }
+
+    /**
+     * @return the best simulation result
+     */
+    public double getBestResult(){
+        return bResult;
+    }
+
+    /**
+     * @return the number of iterations completed by the search
+     */
+    public int getIterations(){
+        return iterations;
+    }
+
+    /**
+     * @return the number of simulations run by the search
+     */
+    public int getRollouts(){
+        return simNum;
+    }
+
+    /**
+     * @return the number of QSI estimations back-propagated as simulation results in the search
+     */
+    public int getFakeRollouts(){
+        return fakeNum;
+    }
+}
@@ -0,0 +1,106 @@
+package mcts;
+
+import metrics.Histogram;
+
+/**
+ * The instrumentation of one MCTS search: the time spent in each phase of its iterations, the rollouts run and the QSI
+ * estimations back-propagated as simulation results, the branching factor of the nodes it expands, and the size and
+ * depth of its search tree once it is done. A search only records its metrics if its root node is given an instance (see
+ * MCTSNode.setMetrics); otherwise the iterations only test for null between phases.
+ *
+ * The metrics of a search are updated by the thread running it, like the counters of SearchContext: each thread of a
+ * parallel search records into its own instance, which is merged into the one of the root node when the thread is
+ * done, so the times of a parallel search are summed over its threads.
+ */
+public final class SearchMetrics {
+
+    // the phases of an iteration: the selection includes the copy of the root state and the replay of the selected
+    // choices, the rollouts include the choice of the node to simulate from, and the back-propagation includes the
+    // release of the virtual losses
+    public static final int SELECTION = 0;
+    public static final int EXPANSION = 1;
+    public static final int ROLLOUT = 2;
+    public static final int QSI = 3;
+    public static final int BACKPROPAGATION = 4;
+    public static final int PHASES = 5;
+
+    // the time spent in each phase in nanoseconds
+    final long[] nanos = new long[PHASES];
+    // the number of rollouts run, and the number of QSI estimations back-propagated as simulation results; the
+    // rollouts of an iteration still run after its estimation
+    int rollouts = 0;
+    int estimates = 0;
+    // the number of child nodes of each node expanded
+    final Histogram branching = new Histogram();
+    // the number of nodes and the depth of the search tree
+    int treeSize = 0;
+    int treeDepth = 0;
+
+    /**
+     * add the time since the start of a phase to the phase
+     * @param phase the phase
+     * @param start the time (System.nanoTime()) at which the phase started
+     * @return the current time, at which the next phase starts
+     */
+    long phase(int phase, long start){
+        long now = System.nanoTime();
+        nanos[phase] += now - start;
+        return now;
+    }
+
+    /**
+     * merge the metrics of another thread of the same search into these
+     * @param other the metrics of the other thread
+     */
+    void merge(SearchMetrics other){
+        for(int i = 0; i < PHASES; i++){
+            nanos[i] += other.nanos[i];
+        }
+        rollouts += other.rollouts;
+        estimates += other.estimates;
+        branching.add(other.branching);
+    }
+
+    /**
+     * @param phase a phase (SELECTION, EXPANSION, ROLLOUT, QSI or BACKPROPAGATION)
+     * @return the time spent in the phase in nanoseconds
+     */
+    public long getNanos(int phase){
+        return nanos[phase];
+    }
+
+    /**
+     * @return the number of rollouts run
+     */
+    public int getRollouts(){
+        return rollouts;
+    }
+
+    /**
+     * @return the number of QSI estimations back-propagated as simulation results
+     */
+    public int getEstimates(){
+        return estimates;
+    }
+
+    /**
+     * @return the number of child nodes of each node expanded by the search, 0 for the terminal nodes
+     */
+    public Histogram getBranching(){
+        return branching;
+    }
+
+    /**
+     * @return the number of nodes of the search tree, including the root node
+     */
+    public int getTreeSize(){
+        return treeSize;
+    }
+
+    /**
+     * @return the length of the longest path from the root node of the search tree to a leaf node
+     */
+    public int getTreeDepth(){
+        return treeDepth;
+    }
+}
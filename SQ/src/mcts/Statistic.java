@@ -5,19 +5,19 @@ public class Statistic {
     /**
      * the number of times this node has been visited
      */
-    public int nVisits;
+    private int nVisits;
     /**
      * the total simulation values
      */
-    public double totValue;
+    private double totValue;
     /**
      * the total squared simulation values
      */
-    public double totSquare;
+    private double totSquare;
     /**
      * best simulation result;
      */
-    public double best;
+    private double best;
 
     public Statistic(){
         nVisits = 0;
@@ -46,5 +46,67 @@ public class Statistic {
             best = value;
     }
 
+    /**
+     * update the statistics by adding a batch of simulation results at once
+     * @param times the number of simulations
+     * @param total the sum of the simulation values
+     * @param square the sum of the squared simulation values
+     * @param max the best simulation value
+     */
+    public void addValues(int times, double total, double square, double max){
+        nVisits += times;
+        totValue += total;
+        totSquare += square;
+        if(max > best)
+            best = max;
+    }
+
+    /**
+     * add the statistics collected by another search on the same node
+     * @param other the statistics of the other search
+     */
+    public void merge(Statistic other){
+        nVisits += other.getRawVisits();
+        totValue += other.getTotValue();
+        totSquare += other.getTotSquare();
+        if(other.getBest() > best)
+            best = other.getBest();
+    }
+
+    /**
+     * @return the number of times this node has been visited
+     */
+    public int getVisits(){
+        return nVisits;
+    }
+
+    /**
+     * @return the number of times this node has been visited, without the pending virtual losses of a search tree
+     * shared by several threads (see ConcurrentStatistic)
+     */
+    public int getRawVisits(){
+        return nVisits;
+    }
+
+    /**
+     * @return the total simulation values
+     */
+    public double getTotValue(){
+        return totValue;
+    }
+
+    /**
+     * @return the total squared simulation values
+     */
+    public double getTotSquare(){
+        return totSquare;
+    }
+
+    /**
+     * @return the best simulation result
+     */
+    public double getBest(){
+        return best;
+    }
 
 }
@@ -0,0 +1,175 @@
+package mcts;
+
+import agent.BeliefBaseImp;
+import agent.Choice;
+import goalplantree.*;
+
+import java.util.*;
+
+/**
+ * The transitions of the agent's intentions and beliefs in the MCTS search, shared by the different kinds of nodes.
+ */
+public final class Transitions {
+
+    private Transitions(){
+    }
+
+    /**
+     * update belief base and intention base according to a choice
+     * @param c the given choice
+     * @param sGPTs the set of gpts
+     * @param sBeliefs the belief base
+     */
+    public static void biUpdate(Choice c, GoalPlanTree[] sGPTs, BeliefBaseImp sBeliefs){
+
+        // get the target goal-plan tree
+        GoalPlanTree gpt = sGPTs[c.intentionChoice];
+        // if it is a plan selection and the current step in this gpt is a (sub)goal
+        if(c.isPlanSelection() && gpt.getCurrentStep() instanceof GoalNode){
+            // then we use the corresponding plan to achieve it, the subgoal is added to the backtrack list and the
+            // current step becomes the first step in this plan
+            gpt.setCursor(gpt.getCursor().select(c.planChoice));
+        }
+        // if it is an intention selection and the current step of this gpt is an action
+        else if(c.isActionExecution() && gpt.getCurrentStep() instanceof ActionNode){
+            // get the action
+            ActionNode act = (ActionNode) gpt.getCurrentStep();
+            // apply its postcondition to the simulation belief base
+            sBeliefs.update(act.getPostcondition());
+            // move to the next step, backtracking to the parent goals if it is the last step in a plan
+            gpt.setCursor(gpt.getCursor().next());
+
+        }else {
+            System.out.println(c.intentionChoice);
+            System.out.println(c.planChoice);
+            System.out.println(c.isActionExecution());
+            System.out.println(c.isPlanSelection());
+            System.out.println(gpt.getCurrentStep().getName());
+
+            System.err.println("MCTS Expansion Error0");
+            System.exit(0);
+        }
+    }
+
+    /**
+     * @param sg a (sub)goal
+     * @param bb the belief base
+     * @return the lists of plan choices that lead from the goal to an action, where the precondition of each plan
+     * holds. The lists are cached and shared, so they must not be modified.
+     */
+    public static int[][] getPosChoices(GoalNode sg, BeliefBaseImp bb){
+        // the applicable plans only depend on the beliefs about the literals in the footprint of the goal
+        Projection probe = PROBE.get().project(sg.getFootprint(), bb);
+        Map<Object, int[][]> choices = sg.getChoices();
+        int[][] result = choices.get(probe);
+        if(result == null){
+            // the probe is reused by the subgoals, so the key is copied before enumerating the choices
+            Projection key = probe.copy();
+            result = enumerate(sg, bb);
+            if(choices.size() < MEMO_LIMIT)
+                choices.putIfAbsent(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * the maximum number of belief projections whose plan choices are cached for a goal
+     */
+    static final int MEMO_LIMIT = 1 << 12;
+
+    /**
+     * the projection each thread looks up the cache of a goal with, so that a hit does not allocate
+     */
+    private static final ThreadLocal<Projection> PROBE = ThreadLocal.withInitial(() -> new Projection(new long[0]));
+
+    /**
+     * the projection of a belief base onto the footprint of a goal
+     */
+    private static final class Projection {
+        private long[] words;
+        private int length;
+        private int hash;
+
+        Projection(long[] words){
+            this.words = words;
+            this.length = words.length;
+            this.hash = hash(words, length);
+        }
+
+        /**
+         * set this projection to the projection of a belief base onto a footprint
+         * @return this projection
+         */
+        Projection project(Condition footprint, BeliefBaseImp bb){
+            length = 2 * footprint.size();
+            if(words.length < length)
+                words = new long[length];
+            bb.project(footprint, words);
+            hash = hash(words, length);
+            return this;
+        }
+
+        /**
+         * @return a copy of this projection, which is not changed when this one is
+         */
+        Projection copy(){
+            return new Projection(Arrays.copyOf(words, length));
+        }
+
+        private static int hash(long[] words, int length){
+            int h = 1;
+            for(int i = 0; i < length; i++){
+                h = 31 * h + Long.hashCode(words[i]);
+            }
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Projection))
+                return false;
+            Projection p = (Projection) o;
+            return length == p.length && Arrays.equals(words, 0, length, p.words, 0, length);
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+    }
+
+    /**
+     * @return the lists of plan choices that lead from the goal to an action, where the precondition of each plan holds
+     */
+    private static int[][] enumerate(GoalNode sg, BeliefBaseImp bb){
+        // initialise the list
+        ArrayList<int[]> result = new ArrayList<>();
+        // get its associated plans
+        PlanNode[] pls = sg.getPlans();
+        // check each plan
+        for(int i = 0; i < pls.length; i++){
+            // if the precondition of the plan holds
+            if(bb.evaluate(pls[i].getPrecondition()) == 1){
+                // get the first step of this plan
+                TreeNode first = pls[i].getPlanbody()[0];
+                // if the first step is an action
+                if(first instanceof ActionNode){
+                    // add the plan choice
+                    result.add(new int[]{i});
+                }
+                // if the first step is a subgoal
+                else {
+                    // for each list of choices of the subgoal
+                    for(int[] s : getPosChoices((GoalNode) first, bb)){
+                        int[] cs = new int[s.length + 1];
+                        // add the plan choice, then all the choices in the list
+                        cs[0] = i;
+                        System.arraycopy(s, 0, cs, 1, s.length);
+                        result.add(cs);
+                    }
+                }
+            }
+        }
+        return result.toArray(new int[result.size()][]);
+    }
+}
@@ -0,0 +1,198 @@
+package mcts;
+
+import agent.BeliefBaseImp;
+import agent.Choice;
+import goalplantree.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A transposition table of an MCTS search tree. Different orders of the choices of independent intentions often lead
+ * to the same state, i.e., the same beliefs and the same current step in each intention. The nodes of these states
+ * share one statistic, which is stored in this table under the Zobrist hash of the state.
+ *
+ * The table has a fixed number of entries. A hash is stored in one of the few entries of its bucket, and when the
+ * bucket is full the entry with the fewest visits is replaced. A replaced statistic is still used by its nodes, it is
+ * only not shared with the nodes created afterwards.
+ *
+ * The threads of a tree-parallel search share the table. A bucket is only read and changed under the lock of its
+ * stripe, so the threads only wait for each other when they expand states of the same stripe at the same time.
+ *
+ * A table is kept by its agent from one search to the next and cleared when the search starts from a new tree (see
+ * clear()), and the tables of the independent searches of a root-parallel search are kept by the table of the root
+ * (see fork(int)), so that the searches do not allocate new tables.
+ */
+public final class TranspositionTable {
+
+    // the number of entries a hash can be stored in
+    private static final int BUCKET = 4;
+    // the number of locks of the buckets
+    private static final int STRIPES = 64;
+
+    private final long[] keys;
+    private final Statistic[] stats;
+    private final int mask;
+    private final Object[] locks = new Object[STRIPES];
+
+    // the number of times a node shares the statistic of a transposition
+    private final LongAdder hits = new LongAdder();
+    // the tables of the searches of a root-parallel search from this table, allocated once
+    private TranspositionTable[] forks = new TranspositionTable[0];
+
+    /**
+     * @param capacity the number of entries, rounded up to a power of 2
+     */
+    public TranspositionTable(int capacity){
+        int size = size(capacity);
+        keys = new long[size];
+        stats = new Statistic[size];
+        mask = size - 1;
+        for(int i = 0; i < STRIPES; i++){
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @param capacity a number of entries
+     * @return the number of entries of a table of this capacity
+     */
+    public static int size(int capacity){
+        return Integer.highestOneBit(Math.max(BUCKET, capacity - 1) << 1);
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int capacity(){
+        return keys.length;
+    }
+
+    /**
+     * remove all the statistics from this table and from the tables of its forks. It must not be used by a search at
+     * the same time.
+     */
+    public void clear(){
+        Arrays.fill(stats, null);
+        hits.reset();
+        for(TranspositionTable fork : forks){
+            fork.clear();
+        }
+    }
+
+    /**
+     * @param i the index of a search of a root-parallel search
+     * @return an empty table of the same capacity for the search, the same one every time the index is used
+     */
+    TranspositionTable fork(int i){
+        if(i >= forks.length)
+            forks = Arrays.copyOf(forks, i + 1);
+        if(forks[i] == null)
+            forks[i] = new TranspositionTable(capacity());
+        else
+            forks[i].clear();
+        return forks[i];
+    }
+
+    /**
+     * @param key the hash of a state
+     * @param stat the statistic of a new node of the state
+     * @return the statistic shared by the nodes of the state, which is the given one if the state is new
+     */
+    Statistic share(long key, Statistic stat){
+        // the first entry of the bucket
+        int index = (int) (key ^ (key >>> 32)) & mask & -BUCKET;
+        synchronized (locks[(index / BUCKET) & (STRIPES - 1)]){
+            int victim = -1;
+            for(int slot = index; slot < index + BUCKET; slot++){
+                if(stats[slot] == null){
+                    if(victim < 0 || stats[victim] != null)
+                        victim = slot;
+                }else if(keys[slot] == key){
+                    hits.increment();
+                    return stats[slot];
+                }else if(victim < 0 || (stats[victim] != null && stats[slot].getVisits() < stats[victim].getVisits())){
+                    victim = slot;
+                }
+            }
+            keys[victim] = key;
+            stats[victim] = stat;
+            return stat;
+        }
+    }
+
+    /**
+     * replace the statistics in this table by their converted versions. It must not be used by a search at the same
+     * time.
+     * @param converted the converted version of each statistic
+     */
+    void convert(Map<Statistic, Statistic> converted){
+        for(int i = 0; i < stats.length; i++){
+            if(stats[i] != null)
+                stats[i] = converted.computeIfAbsent(stats[i], ConcurrentStatistic::new);
+        }
+    }
+
+    /**
+     * @return the number of times a node shares the statistic of a transposition
+     */
+    int getHits(){
+        return hits.intValue();
+    }
+
+    /**
+     * @param gpts the goal-plan trees of a state
+     * @param bb the belief base of a state
+     * @return the Zobrist hash of the state
+     */
+    static long key(GoalPlanTree[] gpts, BeliefBaseImp bb){
+        long h = bb.zobrist();
+        for(int i = 0; i < gpts.length; i++){
+            h ^= key(i, gpts[i].getCursor());
+        }
+        return h;
+    }
+
+    /**
+     * @param key the hash of a state
+     * @param gpts the goal-plan trees of the state
+     * @param bb the belief base of the state
+     * @param choices the plan choices and the action execution of an intention
+     * @return the hash of the state after these choices
+     */
+    static long key(long key, GoalPlanTree[] gpts, BeliefBaseImp bb, ArrayList<Choice> choices){
+        int i = choices.get(0).intentionChoice;
+        IntentionCursor cursor = gpts[i].getCursor();
+        key ^= key(i, cursor);
+        for(Choice c : choices){
+            if(c.isPlanSelection()){
+                cursor = cursor.select(c.planChoice);
+            }else {
+                // the action changes the beliefs
+                ActionNode act = (ActionNode) cursor.getStep();
+                key ^= bb.zobrist() ^ bb.zobristAfter(act.getPostcondition());
+                cursor = cursor.next();
+            }
+        }
+        return key ^ key(i, cursor);
+    }
+
+    /**
+     * @return the random key of an intention being at the position of the given cursor
+     */
+    private static long key(int intention, IntentionCursor cursor){
+        int step = cursor.getStep() == null ? -1 : cursor.getStep().getId();
+        return mix(mix(((long) intention << 32) | (step & 0xffffffffL)) + cursor.getDepth());
+    }
+
+    /**
+     * the finaliser of the SplitMix64 generator, which turns consecutive numbers into well distributed keys
+     */
+    private static long mix(long z){
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,186 @@
+package metrics;
+
+import mcts.SearchMetrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+
+/**
+ * The counters and histograms of the MCTS searches of an agent, accumulated from the metrics of each search (see
+ * SearchMetrics) and published as an MXBean named "sq:type=AgentMetrics,name=" followed by the quoted name of the
+ * agent. The agent records its searches from the thread deliberating, while JMX reads them from other threads, so
+ * every access is synchronized; it happens once per search, not once per iteration.
+ */
+public final class AgentMetrics implements AgentMetricsMXBean {
+
+    // the metrics published on the platform MBean server, by the name of their agent
+    private static final HashMap<String, AgentMetrics> REGISTERED = new HashMap<>();
+
+    private final String agent;
+
+    private long deliberations;
+    private long iterations;
+    private long rollouts;
+    private long estimates;
+    private final long[] nanos = new long[SearchMetrics.PHASES];
+    private final Histogram searchMicros = new Histogram();
+    private final Histogram treeSize = new Histogram();
+    private final Histogram treeDepth = new Histogram();
+    private final Histogram branching = new Histogram();
+
+    /**
+     * @param agent the name of the agent
+     */
+    public AgentMetrics(String agent){
+        this.agent = agent;
+    }
+
+    /**
+     * record a search
+     * @param m the metrics of the search
+     * @param iterations the number of iterations completed by the search
+     * @param nanos the duration of the search in nanoseconds
+     */
+    public synchronized void record(SearchMetrics m, int iterations, long nanos){
+        deliberations++;
+        this.iterations += iterations;
+        rollouts += m.getRollouts();
+        estimates += m.getEstimates();
+        for(int i = 0; i < this.nanos.length; i++){
+            this.nanos[i] += m.getNanos(i);
+        }
+        searchMicros.add(nanos / 1000);
+        treeSize.add(m.getTreeSize());
+        treeDepth.add(m.getTreeDepth());
+        branching.add(m.getBranching());
+    }
+
+    /**
+     * publish these metrics on the platform MBean server, replacing the metrics of another agent of the same name
+     */
+    public void register(){
+        synchronized (REGISTERED){
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = name();
+                if(server.isRegistered(name))
+                    server.unregisterMBean(name);
+                server.registerMBean(this, name);
+                REGISTERED.put(agent, this);
+            }catch (JMException e){
+                System.out.println("Register the metrics of " + agent + " error! " + e);
+            }
+        }
+    }
+
+    /**
+     * stop publishing these metrics on the platform MBean server, unless they have been replaced by the metrics of
+     * another agent of the same name
+     */
+    public void unregister(){
+        synchronized (REGISTERED){
+            if(!REGISTERED.remove(agent, this))
+                return;
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = name();
+                if(server.isRegistered(name))
+                    server.unregisterMBean(name);
+            }catch (JMException e){
+                System.out.println("Unregister the metrics of " + agent + " error! " + e);
+            }
+        }
+    }
+
+    private ObjectName name() throws JMException {
+        return new ObjectName("sq:type=AgentMetrics,name=" + ObjectName.quote(agent));
+    }
+
+    @Override
+    public String getAgent(){
+        return agent;
+    }
+
+    @Override
+    public synchronized long getDeliberations(){
+        return deliberations;
+    }
+
+    @Override
+    public synchronized long getIterations(){
+        return iterations;
+    }
+
+    @Override
+    public synchronized long getRollouts(){
+        return rollouts;
+    }
+
+    @Override
+    public synchronized long getEstimates(){
+        return estimates;
+    }
+
+    @Override
+    public synchronized long getSelectionNanos(){
+        return nanos[SearchMetrics.SELECTION];
+    }
+
+    @Override
+    public synchronized long getExpansionNanos(){
+        return nanos[SearchMetrics.EXPANSION];
+    }
+
+    @Override
+    public synchronized long getRolloutNanos(){
+        return nanos[SearchMetrics.ROLLOUT];
+    }
+
+    @Override
+    public synchronized long getQsiNanos(){
+        return nanos[SearchMetrics.QSI];
+    }
+
+    @Override
+    public synchronized long getBackpropagationNanos(){
+        return nanos[SearchMetrics.BACKPROPAGATION];
+    }
+
+    @Override
+    public synchronized Histogram getSearchMicros(){
+        return searchMicros.copy();
+    }
+
+    @Override
+    public synchronized Histogram getTreeSize(){
+        return treeSize.copy();
+    }
+
+    @Override
+    public synchronized Histogram getTreeDepth(){
+        return treeDepth.copy();
+    }
+
+    @Override
+    public synchronized Histogram getBranching(){
+        return branching.copy();
+    }
+
+    @Override
+    public synchronized void reset(){
+        deliberations = 0;
+        iterations = 0;
+        rollouts = 0;
+        estimates = 0;
+        for(int i = 0; i < nanos.length; i++){
+            nanos[i] = 0;
+        }
+        searchMicros.clear();
+        treeSize.clear();
+        treeDepth.clear();
+        branching.clear();
+    }
+}
@@ -0,0 +1,66 @@
+package metrics;
+
+/**
+ * The metrics of the MCTS searches of an agent, as published over JMX (see AgentMetrics). The times are summed over
+ * the threads of the searches; the histograms are read as composite data with their count, mean, percentiles and
+ * power-of-two buckets (see Histogram).
+ */
+public interface AgentMetricsMXBean {
+
+    /**
+     * @return the name of the agent
+     */
+    String getAgent();
+
+    /**
+     * @return the number of searches recorded
+     */
+    long getDeliberations();
+
+    long getIterations();
+
+    /**
+     * @return the number of rollouts run
+     */
+    long getRollouts();
+
+    /**
+     * @return the number of QSI estimations back-propagated as simulation results
+     */
+    long getEstimates();
+
+    long getSelectionNanos();
+
+    long getExpansionNanos();
+
+    long getRolloutNanos();
+
+    long getQsiNanos();
+
+    long getBackpropagationNanos();
+
+    /**
+     * @return the duration of the searches in microseconds
+     */
+    Histogram getSearchMicros();
+
+    /**
+     * @return the number of nodes of the search trees
+     */
+    Histogram getTreeSize();
+
+    /**
+     * @return the depth of the search trees
+     */
+    Histogram getTreeDepth();
+
+    /**
+     * @return the number of child nodes of the expanded nodes
+     */
+    Histogram getBranching();
+
+    /**
+     * forget the searches recorded so far
+     */
+    void reset();
+}
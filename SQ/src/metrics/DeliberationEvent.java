@@ -0,0 +1,94 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import mcts.SearchMetrics;
+
+/**
+ * A JFR event for each MCTS search of an agent, whose duration is the one of the search. It is only committed while
+ * a recording enables it, e.g., with -XX:StartFlightRecording or "jcmd JFR.start"; the searches only record their
+ * metrics for the event while it is enabled (see MCTSAgent).
+ */
+@Name("sq.Deliberation")
+@Label("MCTS Deliberation")
+@Category({"SQ", "MCTS"})
+@Description("The phases, rollouts and search tree of an MCTS search of an agent")
+@StackTrace(false)
+public class DeliberationEvent extends Event {
+
+    @Label("Agent")
+    String agent;
+
+    @Label("Iterations")
+    int iterations;
+
+    @Label("Rollouts")
+    int rollouts;
+
+    @Label("QSI Estimates")
+    @Description("The QSI estimations back-propagated as simulation results, in addition to the rollouts")
+    int estimates;
+
+    @Label("Selection")
+    @Timespan(Timespan.NANOSECONDS)
+    long selection;
+
+    @Label("Expansion")
+    @Timespan(Timespan.NANOSECONDS)
+    long expansion;
+
+    @Label("Rollout")
+    @Timespan(Timespan.NANOSECONDS)
+    long rollout;
+
+    @Label("QSI Check")
+    @Timespan(Timespan.NANOSECONDS)
+    long qsi;
+
+    @Label("Backpropagation")
+    @Timespan(Timespan.NANOSECONDS)
+    long backpropagation;
+
+    @Label("Tree Size")
+    int treeSize;
+
+    @Label("Tree Depth")
+    int treeDepth;
+
+    @Label("Expansions")
+    long expansions;
+
+    @Label("Mean Branching Factor")
+    double branching;
+
+    @Label("Max Branching Factor")
+    long maxBranching;
+
+    /**
+     * fill the fields of the event from the metrics of a search
+     * @param agent the name of the agent
+     * @param iterations the number of iterations completed by the search
+     * @param m the metrics of the search
+     */
+    public void set(String agent, int iterations, SearchMetrics m){
+        this.agent = agent;
+        this.iterations = iterations;
+        rollouts = m.getRollouts();
+        estimates = m.getEstimates();
+        selection = m.getNanos(SearchMetrics.SELECTION);
+        expansion = m.getNanos(SearchMetrics.EXPANSION);
+        rollout = m.getNanos(SearchMetrics.ROLLOUT);
+        qsi = m.getNanos(SearchMetrics.QSI);
+        backpropagation = m.getNanos(SearchMetrics.BACKPROPAGATION);
+        treeSize = m.getTreeSize();
+        treeDepth = m.getTreeDepth();
+        expansions = m.getBranching().getCount();
+        branching = m.getBranching().getMean();
+        maxBranching = m.getBranching().getMax();
+    }
+}
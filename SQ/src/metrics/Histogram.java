@@ -0,0 +1,137 @@
+package metrics;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative values with power-of-two buckets: bucket 0 counts the value 0 and bucket k the values
+ * from 2^(k-1) to 2^k - 1. The count, sum, minimum and maximum are exact, the percentiles are the upper bounds of
+ * their buckets (capped by the maximum), so they are within a factor 2 of the exact ones.
+ *
+ * A histogram is not thread-safe; the getters are those of the histograms published over JMX (see AgentMetrics).
+ */
+public final class Histogram {
+
+    // one bucket for 0 and one for each bit of a long
+    private static final int BUCKETS = 64;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * add a value, negative values counting as 0
+     * @param value the value
+     */
+    public void add(long value){
+        if(value < 0)
+            value = 0;
+        buckets[BUCKETS - Long.numberOfLeadingZeros(value)]++;
+        count++;
+        sum += value;
+        if(value < min)
+            min = value;
+        if(value > max)
+            max = value;
+    }
+
+    /**
+     * add the values of another histogram
+     * @param other the other histogram
+     */
+    public void add(Histogram other){
+        if(other.count == 0)
+            return;
+        for(int i = 0; i < BUCKETS; i++){
+            buckets[i] += other.buckets[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return a copy of this histogram
+     */
+    public Histogram copy(){
+        Histogram h = new Histogram();
+        h.add(this);
+        return h;
+    }
+
+    public void clear(){
+        Arrays.fill(buckets, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount(){
+        return count;
+    }
+
+    public long getSum(){
+        return sum;
+    }
+
+    /**
+     * @return the smallest value, 0 if there is none
+     */
+    public long getMin(){
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax(){
+        return max;
+    }
+
+    /**
+     * @return the mean of the values, 0 if there is none
+     */
+    public double getMean(){
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public long getP50(){
+        return percentile(50);
+    }
+
+    public long getP90(){
+        return percentile(90);
+    }
+
+    public long getP99(){
+        return percentile(99);
+    }
+
+    /**
+     * @return the number of values of each bucket, up to the last one which is not empty
+     */
+    public long[] getBuckets(){
+        int n = BUCKETS;
+        while (n > 0 && buckets[n - 1] == 0){
+            n--;
+        }
+        return Arrays.copyOf(buckets, n);
+    }
+
+    /**
+     * @param p a percentile between 0 and 100
+     * @return the upper bound of the bucket of this percentile (nearest rank), 0 if there is no value
+     */
+    public long percentile(double p){
+        if(count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += buckets[i];
+            if(seen >= rank)
+                return i == 0 ? 0 : Math.min(max, i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+        }
+        return max;
+    }
+}
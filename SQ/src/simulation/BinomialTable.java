@@ -0,0 +1,59 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * The logarithms of the factorials, so that a ratio of binomial coefficients costs a few lookups and one exponential.
+ * The table is shared by all the searches and grows lazily up to the longest intention seen so far. It is only
+ * replaced, never modified in place, so it can be read concurrently without locking.
+ */
+final class BinomialTable {
+
+    // log(n!) for each n below the length of the table
+    private static volatile double[] logFactorials = {0};
+
+    private BinomialTable(){
+    }
+
+    /**
+     * @param a the size of the smaller set
+     * @param n the size of the larger set, not less than a
+     * @param f the number of elements to choose
+     * @return C(a, f) / C(n, f), i.e., the probability that f elements chosen from n all fall in a given subset of a
+     */
+    static double ratio(int a, int n, int f){
+        if(f <= 0)
+            return 1;
+        if(a == n)
+            return 1;
+        if(a < f)
+            return 0;
+        double[] table = table(n);
+        // C(a, f) / C(n, f) = a! (n - f)! / ((a - f)! n!)
+        return Math.exp(table[a] - table[a - f] + table[n - f] - table[n]);
+    }
+
+    /**
+     * @param n the largest argument of the factorials needed
+     * @return a table with the logarithms of the factorials up to n
+     */
+    private static double[] table(int n){
+        double[] table = logFactorials;
+        if(n < table.length)
+            return table;
+        return grow(n);
+    }
+
+    private static synchronized double[] grow(int n){
+        double[] table = logFactorials;
+        if(n < table.length)
+            return table;
+        int old = table.length;
+        table = Arrays.copyOf(table, Math.max(n + 1, 2 * old));
+        for(int i = old; i < table.length; i++){
+            table[i] = table[i - 1] + Math.log(i);
+        }
+        logFactorials = table;
+        return table;
+    }
+}
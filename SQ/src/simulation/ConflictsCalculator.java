@@ -2,80 +2,175 @@ package simulation;
 
 import goalplantree.*;
 import java.util.*;
-import org.apache.commons.math3.util.CombinatoricsUtils;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ConflictsCalculator {
 
-    Random rm = new Random();
+    Random rm;
+
+    /**
+     * the QSI of the intentions by their position, i.e., the current step and the goals to backtrack to. It may be
+     * shared by the calculators of concurrent searches (see fork).
+     */
+    private final ConcurrentHashMap<IntentionCursor, Qsi> qsis;
+    // the maximum number of positions in the QSI cache, which is cleared when it is full
+    static final int QSI_LIMIT = 1 << 16;
+
+    /**
+     * the conflict probabilities of each pair of intentions in the last query of probConfInts, with the positions
+     * of the intentions they were computed for. Only the pairs of the intentions which have moved are recomputed.
+     */
+    private IntentionCursor[] cursors = new IntentionCursor[0];
+    private Qsi[] rows = new Qsi[0];
+    private double[][] conflicts = new double[0][0];
+    private boolean[] moved = new boolean[0];
 
     public ConflictsCalculator(){
+        this(new Random());
+    }
 
+    /**
+     * @param rm the random stream used to sample intentions
+     */
+    public ConflictsCalculator(Random rm){
+        this(rm, new ConcurrentHashMap<>());
+    }
+
+    private ConflictsCalculator(Random rm, ConcurrentHashMap<IntentionCursor, Qsi> qsis){
+        this.rm = rm;
+        this.qsis = qsis;
     }
 
-    public void calSimInfoGoal(GoalNode goal){
+    /**
+     * A calculator is used by one thread at a time. The calculators of concurrent searches can share their QSI cache
+     * through this method.
+     * @param rm the random stream of the new calculator
+     * @return a calculator sharing the QSI cache of this one
+     */
+    public ConflictsCalculator fork(Random rm){
+        return new ConflictsCalculator(rm, qsis);
+    }
+
+    /**
+     * the quantitative summary information (QSI) of an intention: the average fragility and establishment of each
+     * literal, indexed by Literal.getIndex(), and the average length of the rest of the intention
+     */
+    static final class Qsi {
+        final double[] frag;
+        final double[] estab;
+        final double length;
+        // the indexes of the fragile literals
+        final int[] fragile;
+
+        Qsi(double[] frag, double[] estab, double length){
+            this.frag = frag;
+            this.estab = estab;
+            this.length = length;
+            int n = 0;
+            int[] fs = new int[frag.length];
+            for(int l = 0; l < frag.length; l++){
+                if(frag[l] != 0)
+                    fs[n++] = l;
+            }
+            this.fragile = Arrays.copyOf(fs, n);
+        }
+    }
+
+    public void calSimInfoGoal(GoalNode goal, ExecutionState state){
+        // goal nodes are shared by concurrent searches, so the summary is written under the goal's lock
+        synchronized (goal){
+            summariseGoal(goal, state);
+        }
+    }
+
+    private void summariseGoal(GoalNode goal, ExecutionState state){
         // initialise the simulation information for this goal
-        HashMap<String, Integer> gEstab = new HashMap<>(); // establish steps
-        HashMap<String, Integer> gFlag = new HashMap<>(); // flag
+        int[] gEstab = new int[0]; // establish steps
+        int[] gFlag = new int[0]; // flag
         int gLength = 0; // total length
         int gSimNum = 0;// total number of simulation
 
         // get plans to achieve this goal
         PlanNode[] plans = goal.getPlans();
+        // the plans may have been simulated a different number of times (see Simulator.setConvergence), so their
+        // totals are scaled to the largest number of simulations for each plan to weigh the same
+        int simNum = 0;
+        for(int i = 0; i < plans.length; i++){
+            simNum = Math.max(simNum, state.getTotSimNum(plans[i]));
+        }
         // check each plan
         for(int i = 0; i <plans.length; i++){
+            int num = state.getTotSimNum(plans[i]);
+            if(num == 0)
+                continue;
             // Establishing step
-            HashMap<String, Integer> estab = plans[i].getTotSimEstab();
-            // for each literal in this map
-            for(Map.Entry<String, Integer> entry : estab.entrySet()){
-                String lname = entry.getKey();
-                int count = entry.getValue();
-                // if it is already in the set
-                if(gEstab.containsKey(lname)){
-                    int temp = gEstab.get(lname);
-                    gEstab.put(lname, temp + count);
-                }
-                // otherwise
-                else {
-                    gEstab.put(lname, count);
-                }
-            }
-
+            gEstab = add(gEstab, state.getTotSimEstab(plans[i]), simNum, num);
             // Fragility
-            HashMap<String, Integer> frag = plans[i].getTotSimFrag();
-            // for each literal in this map
-            for(Map.Entry<String, Integer> entry : frag.entrySet()){
-                String lname = entry.getKey();
-                int count = entry.getValue();
-                // if it is already in the set
-                if(gFlag.containsKey(lname)){
-                    int temp = gFlag.get(lname);
-                    gFlag.put(lname, temp + count);
-                }
-                // otherwise
-                else {
-                    gFlag.put(lname, count);
-                }
-            }
-
+            gFlag = add(gFlag, state.getTotSimFrag(plans[i]), simNum, num);
             // length
-            gLength = gLength + plans[i].getTotSimLength();
+            gLength = gLength + scale(state.getTotSimLength(plans[i]), simNum, num);
             // simulaiton number
-            gSimNum = gSimNum + plans[i].getTotSimNum();
+            gSimNum = gSimNum + simNum;
         }
 
-        goal.setTotSimEstab(gEstab);
-        goal.setTotSimFrag(gFlag);
-        goal.setTotSimLength(gLength);
-        goal.setTotSimNum(gSimNum);
+        state.setTotals(goal, gFlag, gEstab, gLength, gSimNum);
+    }
+
+    /**
+     * @return the sum of a vector and a vector of counts scaled by simNum / num, which is the first vector if it is
+     * long enough
+     */
+    private static int[] add(int[] total, int[] counts, int simNum, int num){
+        if(total.length < counts.length)
+            total = Arrays.copyOf(total, counts.length);
+        for(int i = 0; i < counts.length; i++){
+            total[i] += scale(counts[i], simNum, num);
+        }
+        return total;
+    }
+
+    /**
+     * @return the count scaled by simNum / num, which is the count itself if both numbers are equal
+     */
+    private static int scale(int count, int simNum, int num){
+        return simNum == num ? count : (int) Math.round((double) count * simNum / num);
     }
 
     public void calIntention(GoalPlanTree gpt){
+        Qsi qsi = summarise(gpt);
+        gpt.averSimEstab = qsi.estab.clone();
+        gpt.averSimFrag = qsi.frag.clone();
+        gpt.averSimLength = qsi.length;
+    }
+
+    /**
+     * @return the QSI of the intention at its current position, from the cache if it has been computed before
+     */
+    Qsi qsi(GoalPlanTree gpt){
+        IntentionCursor cursor = gpt.getCursor();
+        Qsi qsi = qsis.get(cursor);
+        if(qsi == null){
+            qsi = summarise(gpt);
+            if(qsis.size() >= QSI_LIMIT)
+                qsis.clear();
+            qsis.put(cursor, qsi);
+        }
+        return qsi;
+    }
+
+    /**
+     * @return the QSI of the rest of the intention
+     */
+    private Qsi summarise(GoalPlanTree gpt){
+        ExecutionState state = gpt.getState();
+        int n = 2 * LiteralTable.size();
         // initialise the information
-        gpt.averSimEstab.clear();
-        gpt.averSimFrag.clear();
-        gpt.averSimLength = 0;
-        // Hash table to record the location of actions
-        HashMap<String, Integer> posActionPost = new HashMap<>();
+        double[] averSimEstab = new double[n];
+        double[] averSimFrag = new double[n];
+        double averSimLength = 0;
+        // the location of the last action establishing each literal, -1 if there is none
+        int[] posActionPost = new int[n];
+        Arrays.fill(posActionPost, -1);
 
 
         // get the current intention of this gpt
@@ -83,8 +178,6 @@ public class ConflictsCalculator {
         // check for each step
         for(int i = 0; i < intention.size(); i++){
 
-            //System.out.print(intention.get(i).getName() + ";");
-
             // if this step is an action
             if(intention.get(i) instanceof ActionNode){
                 // cast it to an action
@@ -93,49 +186,38 @@ public class ConflictsCalculator {
                 Literal[] prec = action.getPrec();
 
                 for(int j = 0; j < prec.length; j++){
-                    String lname = prec[j].toString();
+                    int l = prec[j].getIndex();
 
                     // fragility
                     // if this literal hasn't been established before
-                    // i.e., it is not in the map, or its corresponding value is 0
-                    if(!gpt.averSimEstab.containsKey(lname) || gpt.averSimEstab.get(lname) == 0){
+                    if(averSimEstab[l] == 0){
                         // it becomes the current average depth + 1
-                        gpt.averSimFrag.put(lname, gpt.averSimLength + 1);
+                        averSimFrag[l] = averSimLength + 1;
                     }
                     // if it is potentially established, then we consider the best case, the average fragility only increased by 1
                     else {
                         // if there is a step establishes this action
-                        if(posActionPost.containsKey(lname)){
+                        if(posActionPost[l] >= 0){
                             // value of fragile
                             double fValue = 0;
                             // get its position
-                            int position = posActionPost.get(lname);
+                            int position = posActionPost[l];
                             for(int x = position; x < i; x++){
                                 if(intention.get(x) instanceof ActionNode){
                                     fValue = fValue + 1;
                                 }else if (intention.get(x) instanceof GoalNode){
                                     GoalNode gl = (GoalNode) intention.get(x);
-                                    double aLength = ((double) gl.getTotSimLength()) / gl.getTotSimNum();
+                                    double aLength = ((double) state.getTotSimLength(gl)) / state.getTotSimNum(gl);
                                     fValue += aLength;
                                 }
                             }
-
-                            if(gpt.averSimFrag.containsKey(lname)){
-                                gpt.averSimFrag.put(lname, gpt.averSimFrag.get(lname) + fValue);
-                            }
-                            else {
-                                gpt.averSimFrag.put(lname, fValue);
-                            }
+                            averSimFrag[l] += fValue;
                             // update position
-                            posActionPost.put(lname, i);
+                            posActionPost[l] = i;
                         }
                         // if there is no such action
                         else {
-                            if(gpt.averSimFrag.containsKey(lname)){
-                                gpt.averSimFrag.put(lname, gpt.averSimFrag.get(lname) + 1);
-                            }else {
-                                gpt.averSimFrag.put(lname, 1d);
-                            }
+                            averSimFrag[l] += 1;
                         }
                     }
                 }
@@ -143,90 +225,54 @@ public class ConflictsCalculator {
                 // get its postcondition, postcondiiton only related to establishment
                 Literal[] postc = action.getPostc();
                 for(int j = 0; j < postc.length; j++){
-                    String lname = postc[j].toString();
-                    // get its negation
-                    String lnegname;
-                    if(lname.endsWith("+"))
-                        lnegname = lname.substring(0, lname.length()-2)+"-";
-                    else
-                        lnegname = lname.substring(0, lname.length()-2)+"+";
-
+                    int l = postc[j].getIndex();
                     // establishment increased by 1
-                    if(gpt.averSimEstab.containsKey(lname)){
-                        gpt.averSimEstab.put(lname, gpt.averSimEstab.get(lname) + 1);
-                    }else {
-                        gpt.averSimEstab.put(lname, 1d);
-                    }
-
-                    // update position
-                    posActionPost.put(lname, i);
-                    posActionPost.remove(lnegname);
+                    averSimEstab[l] += 1;
+                    // update position, the negation is no longer established
+                    posActionPost[l] = i;
+                    posActionPost[l ^ 1] = -1;
                 }
                 // length
-                gpt.averSimLength++;
+                averSimLength++;
             }
             // if this step is a subgoal
             else if(intention.get(i) instanceof GoalNode){
                 // cast it to a goal
                 GoalNode goal = (GoalNode) intention.get(i);
-                // summarise simulation information from its plans
-                calSimInfoGoal(goal);
-                // get the total number of simulation
-                double tSimNum = goal.getTotSimNum();
-                // get the total number of steps;
-                double tSimLength = goal.getTotSimLength();
-
+                double tSimNum;
+                double tSimLength;
+                int[] estab;
+                int[] frag;
+                synchronized (goal){
+                    // summarise simulation information from its plans
+                    summariseGoal(goal, state);
+                    // get the total number of simulation
+                    tSimNum = state.getTotSimNum(goal);
+                    // get the total number of steps;
+                    tSimLength = state.getTotSimLength(goal);
+                    estab = state.getTotSimEstab(goal);
+                    frag = state.getTotSimFrag(goal);
+                }
 
                 // establishment
-                HashMap<String, Integer> estab = goal.getTotSimEstab();
-                for(Map.Entry<String, Integer> entry : estab.entrySet()){
-                    // get the name of literal
-                    String lname = entry.getKey();
-                    // get its negation
-                    String lnegname;
-                    if(lname.endsWith("+"))
-                        lnegname = lname.substring(0, lname.length()-2)+"-";
-                    else
-                        lnegname = lname.substring(0, lname.length()-2)+"+";
-                    // get the total number of time this literal has been established for this goal
-                    double count = entry.getValue();
-                    // get the average establishment per step
-                    double aEstab = count / tSimNum;
-                    // add it to the map
-                    if(gpt.averSimEstab.containsKey(lname)){
-                        // if it is already in the map, the average is added by the number of the average establishement
-                        gpt.averSimEstab.put(lname, gpt.averSimEstab.get(lname) + aEstab);
+                for(int l = 0; l < estab.length && l < n; l++){
+                    if(estab[l] != 0){
+                        // the average establishment per step is added
+                        averSimEstab[l] += estab[l] / tSimNum;
+                        // remove it and its negation from the position set
+                        posActionPost[l] = -1;
+                        posActionPost[l ^ 1] = -1;
                     }
-                    // otherwise, add the number of average establishment
-                    else {
-                        gpt.averSimEstab.put(lname, aEstab);
-                    }
-                    // remove it from the position set
-                    posActionPost.remove(lname);
-                    posActionPost.remove(lnegname);
                 }
                 // fragility
-                HashMap<String, Integer> frag = goal.getTotSimFrag();
-                for(Map.Entry<String, Integer> entry : frag.entrySet()){
-                    // get the name of this literal
-                    String lname = entry.getKey();
-                    // get the total number of steps being fragile
-                    double count = entry.getValue();
-                    // get the average fragile per step
-                    double aFrag = count / tSimNum;
-                    // add it to the map
-                    if(gpt.averSimFrag.containsKey(lname)){
-                        // if it is already in the map, then the value is increased by adding the average fragility
-                        gpt.averSimFrag.put(lname, gpt.averSimFrag.get(lname) + aFrag);
-                    }
-                    // otherwise, only the number of average fragility
-                    else {
-                        gpt.averSimFrag.put(lname, aFrag);
-                    }
+                for(int l = 0; l < frag.length && l < n; l++){
+                    // the average fragility per step is added
+                    if(frag[l] != 0)
+                        averSimFrag[l] += frag[l] / tSimNum;
                 }
                 // average length
                 double aLength = tSimLength / tSimNum;
-                gpt.averSimLength = gpt.averSimLength + aLength;
+                averSimLength = averSimLength + aLength;
             }
             // if it is a complete plan
             else if(intention.get(i) instanceof PlanNode){
@@ -234,31 +280,28 @@ public class ConflictsCalculator {
                 PlanNode planNode = (PlanNode) intention.get(i);
                 // get the information for this plan
                 // tot simulation
-                double tsimnum = planNode.getTotSimNum();
+                double tsimnum = state.getTotSimNum(planNode);
                 // tot length
-                double tlength = planNode.getTotSimLength();
+                double tlength = state.getTotSimLength(planNode);
                 // tot fragile steps
-                HashMap<String, Integer> tfrag = planNode.getTotSimFrag();
+                int[] tfrag = state.getTotSimFrag(planNode);
                 // tot establishment steps
-                HashMap<String, Integer> testab = planNode.getTotSimEstab();
+                int[] testab = state.getTotSimEstab(planNode);
 
                 // fragility
-                for(Map.Entry<String, Integer> entry : tfrag.entrySet()){
-                    String lname = entry.getKey();
-                    double count = entry.getValue();
-                    gpt.averSimFrag.put(lname, count/tsimnum);
+                for(int l = 0; l < tfrag.length && l < n; l++){
+                    if(tfrag[l] != 0)
+                        averSimFrag[l] = tfrag[l] / tsimnum;
                 }
                 // establishment
-                for(Map.Entry<String, Integer> entry : testab.entrySet()){
-                    String lname = entry.getKey();
-                    double count = entry.getValue();
-                    gpt.averSimEstab.put(lname, count/tsimnum);
+                for(int l = 0; l < testab.length && l < n; l++){
+                    if(testab[l] != 0)
+                        averSimEstab[l] = testab[l] / tsimnum;
                 }
-                gpt.averSimLength = tlength / tsimnum;
+                averSimLength = tlength / tsimnum;
             }
         }
-        //System.out.println();
-
+        return new Qsi(averSimFrag, averSimEstab, averSimLength);
     }
 
 
@@ -320,37 +363,25 @@ public class ConflictsCalculator {
      * @return the probability of achieving m goals without causing any potential conflicts given the set of intentions
      */
     public double probConfGPT2(GoalPlanTree[] gpts, int m, double gamma){
-        double result = 1;
-
         int times = gpts.length - m + 1;
+        if(times <= 0)
+            return 0;
 
-
-
-        for(int i = 0; i < times; i++){
-            ArrayList<GoalPlanTree> sgpts = new ArrayList<>();
-            //
-            ArrayList<Integer> selected = new ArrayList<>();
-            //
-            for(int j = 0; j < gpts.length; j++){
-                selected.add(j);
-            }
-            while (selected.size() > m){
-                selected.remove(rm.nextInt(selected.size()));
-            }
-
-            for(int j = 0; j < selected.size(); j++){
-                sgpts.add(gpts[j]);
+        // the first m intentions are checked, as every sample of the intentions to keep always was
+        ArrayList<GoalPlanTree> sgpts = new ArrayList<>();
+        for(int j = 0; j < m; j++){
+            sgpts.add(gpts[j]);
+        }
+        // for the list of gpt, calculate its probability of being conflicts free
+        double result = Math.min(1, probConfInts(sgpts));
+
+        // the samples of the intentions to keep are still drawn, one if the intentions are likely conflict free and
+        // all of them otherwise, only so that the random stream of seeded searches does not change
+        int samples = result > gamma ? 1 : times;
+        for(int i = 0; i < samples; i++){
+            for(int n = gpts.length; n > m; n--){
+                rm.nextInt(n);
             }
-
-            // for the list of gpt, calculate its probability of being conflicts free
-            double prob = probConfInts(sgpts);
-
-            // compare the maximum
-            if(result > prob)
-                result = prob;
-
-            if(result > gamma)
-                break;
         }
 
         return 1 - result;
@@ -362,14 +393,40 @@ public class ConflictsCalculator {
         // if there is only one intention or less, then no conflicts will happen
         if(gpts.size() <= 1)
             return 1;
+        // find the intentions which have moved since the last query
+        int n = gpts.size();
+        if(cursors.length < n){
+            cursors = Arrays.copyOf(cursors, n);
+            rows = Arrays.copyOf(rows, n);
+            moved = new boolean[n];
+            double[][] cs = new double[n][n];
+            for(int i = 0; i < conflicts.length; i++){
+                System.arraycopy(conflicts[i], 0, cs[i], 0, conflicts.length);
+            }
+            conflicts = cs;
+        }
+        boolean changed = false;
+        for(int i = 0; i < n; i++){
+            IntentionCursor cursor = gpts.get(i).getCursor();
+            moved[i] = !cursor.equals(cursors[i]);
+            if(moved[i]){
+                cursors[i] = cursor;
+                rows[i] = qsi(gpts.get(i));
+                changed = true;
+            }
+        }
+        // the pairs with the intentions after the queried ones are not updated, so these intentions are forgotten
+        if(changed)
+            Arrays.fill(cursors, n, cursors.length, null);
         // we need at least two intentions to start comparison
-        for(int i = 0; i < gpts.size() - 1; i++){
-            for(int j = i + 1; j < gpts.size(); j++){
+        for(int i = 0; i < n - 1; i++){
+            for(int j = i + 1; j < n; j++){
                 // get the probability of conflicts between these two intentions
-                double conf = probConf2Ints(gpts.get(i), gpts.get(j));
+                if(moved[i] || moved[j])
+                    conflicts[i][j] = probConf2Ints(rows[i], rows[j]);
 
                 // the probability of conflicts free
-                result = result * (1 - conf);
+                result = result * (1 - conflicts[i][j]);
             }
         }
         // return the probability of conflicts
@@ -377,84 +434,32 @@ public class ConflictsCalculator {
     }
 
     public double probConf2Ints(GoalPlanTree gpt1, GoalPlanTree gpt2){
+        // get the QSI of both intentions, computing it if it hasn't been calculated yet
+        return probConf2Ints(qsi(gpt1), qsi(gpt2));
+    }
 
-        //double result = 1;
+    private double probConf2Ints(Qsi qsi1, Qsi qsi2){
+        // the literals of one intention whose negations are established by the other
+        return Math.max(probConfFragile(qsi1, qsi2), probConfFragile(qsi2, qsi1));
+    }
 
+    /**
+     * @return the maximum probability that a step of the second intention destroys a dependency link of the first one
+     */
+    private double probConfFragile(Qsi qsi1, Qsi qsi2){
         double max = 0;
-        //double min = 1;
-        //double tot = 0;
-        //int count = 0;
-
-        // calculate QSI, if it hasn't been calculated yet
-        if(gpt1.averSimLength == 0) {
-            calIntention(gpt1);
-        }
-        // similarly, calculate QSI for the second intention
-        if(gpt2.averSimLength == 0){
-            calIntention(gpt2);
-        }
-
-        // get the QSI for the first intention
-        HashMap<String, Double> frag1 = gpt1.averSimFrag;
-        HashMap<String, Double> estab1 = gpt1.averSimEstab;
-        double length1 = gpt1.averSimLength;
-//        System.out.println("frag1: " + frag1.size());
-//        System.out.println("estab1: " + estab1.size());
-//        System.out.println("length1: " + length1);
-
-        // get the QSI for the second intention
-        HashMap<String, Double> frag2 = gpt2.averSimFrag;
-        HashMap<String, Double> estab2 = gpt2.averSimEstab;
-        double length2 = gpt2.averSimLength;
-//        System.out.println("frag2: " + frag2.size());
-//        System.out.println("estab2: " + estab2.size());
-//        System.out.println("length2: " + length2);
-
-        // for each fragile step in the first intention
-        for(Map.Entry<String, Double> entry : frag1.entrySet()){
-            // get the name
-            String lname = entry.getKey();
-            // get its negation
-            String lnegname;
-            if(lname.endsWith("+"))
-                lnegname = lname.substring(0, lname.length()-2)+"-";
-            else
-                lnegname = lname.substring(0, lname.length()-2)+"+";
-            // if there is a step in the second intention will potentially destroy the dependency link of l in the first intention
-            if(estab2.containsKey(lnegname)){
-                double fragValue = frag1.get(lname);
-                double estabValue = estab2.get(lnegname);
+        // for each fragile literal in the first intention
+        for(int l : qsi1.fragile){
+            // if there is a step in the second intention will potentially establish its negation
+            int neg = l ^ 1;
+            if(neg < qsi2.estab.length && qsi2.estab[neg] != 0){
                 // conflicts
-                double conflicts = probConfLiteral(length1, length2, fragValue, estabValue);
+                double conflicts = probConfLiteral(qsi1.length, qsi2.length, qsi1.frag[l], qsi2.estab[neg]);
 
                 if(conflicts > max)
                     max = conflicts;
             }
-            // otherwise, ignore it
         }
-
-        // similarly, for each fragile literal in the second intention
-        for(Map.Entry<String, Double> entry : frag2.entrySet()){
-            // get the name
-            String lname = entry.getKey();
-            // get its negation
-            String lnegname;
-            if(lname.endsWith("+"))
-                lnegname = lname.substring(0, lname.length()-2)+"-";
-            else
-                lnegname = lname.substring(0, lname.length()-2)+"+";
-            // if there is a step in the first intention will potentially destroy the dependency link of l in the second intention
-            if(estab1.containsKey(lnegname)){
-                double fragValue = frag2.get(lname);
-                double estabValue = estab1.get(lnegname);
-                // conflicts
-                double conflicts = probConfLiteral(length2, length1, fragValue, estabValue);
-
-                if(conflicts > max)
-                    max = conflicts;
-            }
-        }
-
         return max;
     }
 
@@ -469,10 +474,8 @@ public class ConflictsCalculator {
             return 1;
 
 
-        double v1 = CombinatoricsUtils.binomialCoefficientDouble(lj-ej, fi);
-        double v3 = CombinatoricsUtils.binomialCoefficientDouble(lj, fi);
-
-        return 1 - v1 / v3;
+        // C(lj - ej, fi) / C(lj, fi) from the shared table of log-factorials
+        return 1 - BinomialTable.ratio(lj - ej, lj, fi);
 
     }
 
@@ -0,0 +1,269 @@
+package simulation;
+
+import goalplantree.*;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The QSI totals of the plans of a GPT file saved in a binary sidecar file, so that the offline simulations are only
+ * run once for a GPT file and a number of simulations. The sidecar of "gpt.xml" for alpha simulations per plan is
+ * "gpt.xml.alpha.qsi", and it is keyed by the SHA-256 hash of the content of the GPT file and by the convergence
+ * settings of the simulator (see Simulator.setConvergence): it is ignored and rewritten when any of them changes.
+ *
+ * Format (big-endian):
+ *  int MAGIC, int VERSION, byte[32] hash, int alpha, double tolerance, int minimum, int number of plans,
+ *  int number of literal names, and for each name: int length, UTF-8 bytes,
+ *  and for each plan in depth-first order of the top-level goals (see plans):
+ *  int totSimNum, int totSimLength, int n, n pairs (int literal, int totSimFrag), int m, m pairs (int literal,
+ *  int totSimEstab), where a literal is 2 * the index of its name + 0 if positive or 1 if negative.
+ * The literal ids of the file are mapped to the ids of the LiteralTable when it is loaded.
+ */
+public final class QsiStore {
+
+    static final int MAGIC = 0x51534931; // "QSI1"
+    static final int VERSION = 2;
+
+    private QsiStore(){
+    }
+
+    /**
+     * load the QSI totals of the plans of a GPT file from its sidecar, or run the simulations and save them if there
+     * is no valid sidecar
+     * @param simulator the simulator running the simulations
+     * @param gpt the GPT file
+     * @param alpha the number of simulations per plan
+     * @param tlgs the top-level goals read from the GPT file
+     * @param state the state of a run in which the plans have not been simulated yet
+     * @return true, if the totals were loaded from the sidecar
+     */
+    public static boolean simulate(Simulator simulator, Path gpt, int alpha, List<GoalNode> tlgs, ExecutionState state)
+            throws IOException {
+        byte[] hash = hash(gpt);
+        Path sidecar = sidecar(gpt, alpha);
+        double tolerance = simulator.getTolerance();
+        int minimum = simulator.getMinimum();
+        if(load(sidecar, hash, alpha, tolerance, minimum, tlgs, state))
+            return true;
+        for(GoalNode goal : tlgs){
+            simulator.runSimulation(alpha, goal, state);
+        }
+        try {
+            save(sidecar, hash, alpha, tolerance, minimum, tlgs, state);
+        }catch (IOException e){
+            // the simulations are only lost for later runs
+            System.err.println("QSI: unable to write " + sidecar + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * @return the sidecar of the GPT file for the given number of simulations
+     */
+    public static Path sidecar(Path gpt, int alpha){
+        return gpt.resolveSibling(gpt.getFileName() + "." + alpha + ".qsi");
+    }
+
+    /**
+     * @return the SHA-256 hash of the content of the file
+     */
+    public static byte[] hash(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try(InputStream in = Files.newInputStream(file)){
+                byte[] buffer = new byte[1 << 16];
+                for(int n = in.read(buffer); n >= 0; n = in.read(buffer)){
+                    digest.update(buffer, 0, n);
+                }
+            }
+            return digest.digest();
+        }catch (NoSuchAlgorithmException e){
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @param tlgs the top-level goals of a GPT
+     * @return the plans of the goals and their subgoals in depth-first order
+     */
+    static List<PlanNode> plans(List<GoalNode> tlgs){
+        ArrayList<PlanNode> plans = new ArrayList<>();
+        for(GoalNode goal : tlgs){
+            collect(goal, plans);
+        }
+        return plans;
+    }
+
+    private static void collect(GoalNode goal, List<PlanNode> plans){
+        for(PlanNode plan : goal.getPlans()){
+            plans.add(plan);
+            for(TreeNode step : plan.getPlanbody()){
+                if(step instanceof GoalNode)
+                    collect((GoalNode) step, plans);
+            }
+        }
+    }
+
+    /**
+     * save the QSI totals of the plans of the goals, replacing the sidecar atomically
+     * @param sidecar the sidecar file
+     * @param hash the hash of the GPT file
+     * @param alpha the number of simulations per plan
+     * @param tolerance the convergence tolerance of the simulations
+     * @param minimum the minimum number of simulations per plan
+     * @param tlgs the top-level goals of the GPT file
+     * @param state the state of the run with the totals
+     */
+    public static void save(Path sidecar, byte[] hash, int alpha, double tolerance, int minimum, List<GoalNode> tlgs,
+                            ExecutionState state) throws IOException {
+        List<PlanNode> plans = plans(tlgs);
+        // the literals of the totals, numbered in the order they appear
+        HashMap<Integer, Integer> local = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        for(PlanNode plan : plans){
+            number(state.getTotSimFrag(plan), local, names);
+            number(state.getTotSimEstab(plan), local, names);
+        }
+
+        Path tmp = Files.createTempFile(sidecar.toAbsolutePath().getParent(), sidecar.getFileName().toString(), ".tmp");
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(hash);
+                out.writeInt(alpha);
+                out.writeDouble(tolerance);
+                out.writeInt(minimum);
+                out.writeInt(plans.size());
+                out.writeInt(names.size());
+                for(String name : names){
+                    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                for(PlanNode plan : plans){
+                    out.writeInt(state.getTotSimNum(plan));
+                    out.writeInt(state.getTotSimLength(plan));
+                    write(out, state.getTotSimFrag(plan), local);
+                    write(out, state.getTotSimEstab(plan), local);
+                }
+            }
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * give a local number to the names of the literals with a total
+     */
+    private static void number(int[] totals, HashMap<Integer, Integer> local, ArrayList<String> names){
+        for(int l = 0; l < totals.length; l++){
+            if(totals[l] != 0 && !local.containsKey(l >>> 1)){
+                local.put(l >>> 1, names.size());
+                names.add(LiteralTable.nameOf(l >>> 1));
+            }
+        }
+    }
+
+    private static void write(DataOutputStream out, int[] totals, HashMap<Integer, Integer> local) throws IOException {
+        int n = 0;
+        for(int total : totals){
+            if(total != 0)
+                n++;
+        }
+        out.writeInt(n);
+        for(int l = 0; l < totals.length; l++){
+            if(totals[l] != 0){
+                out.writeInt(2 * local.get(l >>> 1) + (l & 1));
+                out.writeInt(totals[l]);
+            }
+        }
+    }
+
+    /**
+     * load the QSI totals of the plans of the goals from a sidecar
+     * @param sidecar the sidecar file
+     * @param hash the hash of the GPT file
+     * @param alpha the number of simulations per plan
+     * @param tolerance the convergence tolerance of the simulations
+     * @param minimum the minimum number of simulations per plan
+     * @param tlgs the top-level goals read from the GPT file
+     * @param state the state of the run the totals are loaded into
+     * @return true, if the sidecar exists and matches the GPT file and the simulations; false, if the
+     * totals have not been changed
+     */
+    public static boolean load(Path sidecar, byte[] hash, int alpha, double tolerance, int minimum, List<GoalNode> tlgs,
+                               ExecutionState state) throws IOException {
+        if(!Files.isRegularFile(sidecar))
+            return false;
+        List<PlanNode> plans = plans(tlgs);
+        try(FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ)){
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] stored = new byte[hash.length];
+            if(buffer.remaining() < 8 + stored.length + 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return false;
+            buffer.get(stored);
+            if(!Arrays.equals(stored, hash) || buffer.getInt() != alpha || buffer.getDouble() != tolerance
+                    || buffer.getInt() != minimum || buffer.getInt() != plans.size())
+                return false;
+            // the ids of the literal names of the file
+            int[] ids = new int[length(buffer, 4)];
+            for(int i = 0; i < ids.length; i++){
+                byte[] bytes = new byte[length(buffer, 1)];
+                buffer.get(bytes);
+                ids[i] = LiteralTable.intern(new String(bytes, StandardCharsets.UTF_8));
+            }
+            // read all the totals before changing the plans
+            int n = 2 * LiteralTable.size();
+            int[][] frags = new int[plans.size()][];
+            int[][] estabs = new int[plans.size()][];
+            int[] nums = new int[plans.size()];
+            int[] lengths = new int[plans.size()];
+            for(int i = 0; i < plans.size(); i++){
+                nums[i] = buffer.getInt();
+                lengths[i] = buffer.getInt();
+                frags[i] = read(buffer, ids, n);
+                estabs[i] = read(buffer, ids, n);
+            }
+            for(int i = 0; i < plans.size(); i++){
+                state.setTotals(plans.get(i), frags[i], estabs[i], lengths[i], nums[i]);
+            }
+            return true;
+        }catch (BufferUnderflowException | IndexOutOfBoundsException e){
+            // a truncated or corrupted sidecar is simulated again
+            return false;
+        }
+    }
+
+    private static int[] read(ByteBuffer buffer, int[] ids, int n){
+        int[] totals = new int[n];
+        for(int k = length(buffer, 8); k > 0; k--){
+            int l = buffer.getInt();
+            totals[2 * ids[l >>> 1] + (l & 1)] = buffer.getInt();
+        }
+        return totals;
+    }
+
+    /**
+     * read a length or a number of items of the given size, which must fit in the rest of the buffer
+     * @throws BufferUnderflowException if the number is negative or the items do not fit
+     */
+    private static int length(ByteBuffer buffer, int size){
+        int n = buffer.getInt();
+        if(n < 0 || (long) n * size > buffer.remaining())
+            throw new BufferUnderflowException();
+        return n;
+    }
+}
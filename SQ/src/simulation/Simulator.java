@@ -3,240 +3,419 @@ package simulation;
 import goalplantree.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+/**
+ * The offline simulation of the plans of a goal-plan tree, which records how often each literal is established and how
+ * long it is fragile in random executions of each plan (the QSI totals of the tree nodes).
+ *
+ * The simulations of each plan are split into chunks of at most CHUNK simulations, each run by a task with its own
+ * random stream split from the stream of the simulator, so that a seeded simulator gives the same totals whatever the
+ * number of threads. The tasks accumulate their totals in their own vectors and add them to the totals of the plan in
+ * the state of the run (see ExecutionState) when they finish.
+ *
+ * With a convergence tolerance (see setConvergence), alpha is only the maximum number of simulations of a plan: the
+ * simulations run in rounds, each doubling the simulations of the plans whose estimates have not converged yet. A plan
+ * converges when, after at least the minimum number of simulations, a round changes neither its average length nor
+ * the average fragility and establishment of any literal by more than the tolerance, relative to the estimate.
+ */
 public class Simulator {
 
+    // the maximum number of simulations of a plan run by one task
+    static final int CHUNK = 256;
+
+    // the pool running the tasks, null if they run on the calling thread
+    private ForkJoinPool pool;
+    // the random stream the streams of the tasks are split from
+    private SplittableRandom random = new SplittableRandom();
+    // the relative tolerance of the estimates, 0 to run a fixed number of simulations
+    private double tolerance = 0;
+    // the minimum number of simulations of a plan before its estimates are checked
+    private int minimum = 0;
+
     public Simulator(){
 
     }
 
     /**
-     * run alpha times simulations for a given goal
+     * @param threads the number of threads running the simulations
+     */
+    public Simulator(int threads){
+        setThreads(threads);
+    }
+
+    /**
+     * set the number of threads running the simulations
+     * @param n
+     */
+    public void setThreads(int n){
+        if(pool != null)
+            pool.shutdown();
+        pool = n > 1 ? new ForkJoinPool(n) : null;
+    }
+
+    /**
+     * seed the random streams of the simulations, so that the same simulations are run for the same goals
+     * @param seed
+     */
+    public void setSeed(long seed){
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * run a number of simulations of each plan that depends on its variance, instead of a fixed number
+     * @param tolerance the relative change of the estimates below which a plan has converged, 0 to disable
+     * @param minimum the minimum number of simulations of a plan
+     */
+    public void setConvergence(double tolerance, int minimum){
+        this.tolerance = tolerance;
+        this.minimum = minimum;
+    }
+
+    /**
+     * @return the relative tolerance of the estimates, 0 if a fixed number of simulations is run
+     */
+    public double getTolerance(){
+        return tolerance;
+    }
+
+    /**
+     * @return the minimum number of simulations of a plan when the tolerance is set
+     */
+    public int getMinimum(){
+        return minimum;
+    }
+
+    /**
+     * run alpha times simulations for a given goal, or at most alpha times if a convergence tolerance is set
      * @param alpha
      * @param goal
+     * @param state the state of the run the totals of the simulations are added to
+     * @return the number of simulations run for each plan to achieve the goal and its subgoals
+     */
+    public Map<PlanNode, Integer> runSimulation(int alpha, GoalNode goal, ExecutionState state){
+        // get the plans to simulate: the plans to achieve the goal and, recursively, the ones to achieve its subgoals
+        ArrayList<PlanNode> plans = new ArrayList<>();
+        collect(goal, plans);
+        Map<PlanNode, Integer> runs = new LinkedHashMap<>();
+        if(tolerance <= 0 || minimum >= alpha){
+            // split the simulations of each plan into tasks
+            ArrayList<Task> tasks = new ArrayList<>();
+            for(PlanNode plan : plans){
+                schedule(plan, alpha, state, tasks);
+                runs.put(plan, alpha);
+            }
+            run(tasks);
+            return runs;
+        }
+
+        // the first round runs half the minimum, so that the estimates can be compared after the minimum
+        ArrayList<PlanNode> pending = new ArrayList<>(plans);
+        ArrayList<Estimate> before = new ArrayList<>();
+        int first = Math.max(1, minimum / 2);
+        while (!pending.isEmpty()){
+            // double the simulations of each plan which has not converged
+            ArrayList<Task> tasks = new ArrayList<>();
+            before.clear();
+            for(PlanNode plan : pending){
+                int done = runs.getOrDefault(plan, 0);
+                int n = done == 0 ? first : Math.min(done, alpha - done);
+                schedule(plan, n, state, tasks);
+                runs.put(plan, done + n);
+                before.add(new Estimate(plan, state));
+            }
+            run(tasks);
+            // keep the plans whose estimates have changed by more than the tolerance
+            ArrayList<PlanNode> next = new ArrayList<>();
+            for(int i = 0; i < pending.size(); i++){
+                PlanNode plan = pending.get(i);
+                int done = runs.get(plan);
+                if(done < alpha && (done < minimum || !before.get(i).converged(plan, state, tolerance)))
+                    next.add(plan);
+            }
+            pending = next;
+        }
+        return runs;
+    }
+
+    /**
+     * split n simulations of a plan into tasks
+     */
+    private void schedule(PlanNode plan, int n, ExecutionState state, List<Task> tasks){
+        for(int done = 0; done < n; done += CHUNK){
+            tasks.add(new Task(plan, Math.min(CHUNK, n - done), state, random.split()));
+        }
+    }
+
+    /**
+     * run the tasks and wait for them to finish
+     */
+    private void run(List<Task> tasks){
+        if(pool == null){
+            for(Task task : tasks){
+                task.run();
+            }
+        }else {
+            List<ForkJoinTask<?>> running = new ArrayList<>(tasks.size());
+            for(Task task : tasks){
+                running.add(pool.submit(task));
+            }
+            for(ForkJoinTask<?> task : running){
+                task.join();
+            }
+        }
+    }
+
+    /**
+     * @param goal a goal
+     * @param state the state of a run
+     * @return the number of simulations run for each plan to achieve the goal and its subgoals in this run
      */
-    public void runSimulation(int alpha, GoalNode goal){
+    public static int[] getSimulations(GoalNode goal, ExecutionState state){
+        ArrayList<PlanNode> plans = new ArrayList<>();
+        collect(goal, plans);
+        int[] runs = new int[plans.size()];
+        for(int i = 0; i < runs.length; i++){
+            runs[i] = state.getTotSimNum(plans.get(i));
+        }
+        return runs;
+    }
+
+    /**
+     * collect the plans to achieve a goal and its subgoals
+     */
+    private static void collect(GoalNode goal, ArrayList<PlanNode> plans){
         // get the plans to achieve the goal
         PlanNode[] pls = goal.getPlans();
-        // for each plan run simulation
         for(int i = 0; i < pls.length; i++){
-            simulate(alpha, pls[i]);
+            plans.add(pls[i]);
             // get its plan body
             TreeNode[] body = pls[i].getPlanbody();
             // for each step in its planbody
-            // if it is a subgoal, run alpha simulation for the plans to achieve it
+            // if it is a subgoal, collect the plans to achieve it
             for(int j = 0; j < body.length; j++){
                 if(body[j] instanceof GoalNode){
-                    GoalNode subgoal = (GoalNode) body[j];
-                    runSimulation(alpha, subgoal);
+                    collect((GoalNode) body[j], plans);
                 }
             }
         }
     }
 
     /**
-     * simulate alpha times
-     * @param alpha
-     * @param plan
+     * the estimates of a plan before a round of simulations
      */
-    private void simulate(int alpha, PlanNode plan){
-        // simulate alpha times
-        for(int i = 0; i < alpha; i++){
-            // simulation path
-            ArrayList<SimStep> path = new ArrayList<>();
-            // cycle number
-            int cycle = 0;
-            // generate a random path
-            cycle = randomSelect(plan, path, cycle);
-            // summarise the path
-            summarise(plan, path);
-        }
+    private static final class Estimate {
+        private final int num;
+        private final int length;
+        private final int[] frag;
+        private final int[] estab;
 
-        // calculate the simulaiton information
-        //calculation(plan);
-        // clear info
-        //plan.clearDate();
-    }
+        Estimate(PlanNode plan, ExecutionState state){
+            // the vectors of the totals are replaced rather than changed by the simulations
+            num = state.getTotSimNum(plan);
+            length = state.getTotSimLength(plan);
+            frag = state.getTotSimFrag(plan);
+            estab = state.getTotSimEstab(plan);
+        }
 
-    /**
-     * recursively generate a simulation path
-     * @param plan
-     * @param path
-     * @param cycle
-     * @return
-     */
-    private int randomSelect(PlanNode plan, ArrayList<SimStep> path, int cycle){
-        // get the body of this plan
-        TreeNode[] body = plan.getPlanbody();
-        // check each step in this plan
-        for(int i = 0; i < body.length; i++){
-            // if it is an action
-            if(body[i] instanceof ActionNode){
-                // cast it to an action
-                ActionNode action = (ActionNode) body[i];
-                // the number of cycle is increased by 1
-                cycle++;
-                // get the precondition of this action
-                Literal[] pre = action.getPrec();
-                // get the postcondition of this action
-                Literal[] post = action.getPostc();
-                // add this step to the path
-                path.add(new SimStep(pre, post, cycle));
-
-                //System.out.println(cycle);
-                //System.out.println(action.getName());
+        /**
+         * @return true, if the averages of the plan are within the tolerance of these estimates. The averages below
+         * one occurrence in all the simulations of the plan are compared to this occurrence rather than to themselves.
+         */
+        boolean converged(PlanNode plan, ExecutionState state, double tolerance){
+            int n = state.getTotSimNum(plan);
+            if(num == 0)
+                return false;
+            double floor = 1.0 / n;
+            if(!close((double) length / num, (double) state.getTotSimLength(plan) / n, tolerance, floor))
+                return false;
+            return converged(frag, state.getTotSimFrag(plan), n, tolerance, floor)
+                    && converged(estab, state.getTotSimEstab(plan), n, tolerance, floor);
+        }
 
+        private boolean converged(int[] old, int[] totals, int n, double tolerance, double floor){
+            for(int l = 0; l < Math.max(old.length, totals.length); l++){
+                double a = l < old.length ? (double) old[l] / num : 0;
+                double b = l < totals.length ? (double) totals[l] / n : 0;
+                if(!close(a, b, tolerance, floor))
+                    return false;
             }
-            // if it is a subgoal
-            else if(body[i] instanceof GoalNode){
-                // cast it to a goal
-                GoalNode subgoal = (GoalNode) body[i];
-                // get the plans to achieve it
-                PlanNode[] pls = subgoal.getPlans();
-                // randomly select one plan
-                if(pls.length > 0){
-                    Random rm = new Random();
-                    PlanNode pl = pls[rm.nextInt(pls.length)];
-                    // recursively run selection
-                    cycle = randomSelect(pl, path, cycle);
-                }
-            }
+            return true;
+        }
+
+        private static boolean close(double a, double b, double tolerance, double floor){
+            return Math.abs(a - b) <= tolerance * Math.max(Math.max(a, b), floor);
         }
-        return cycle;
     }
 
     /**
-     * summarise the simulation information given the plan, and a simulation path from this plan
-     * @param plan
-     * @param path
+     * a chunk of the simulations of a plan
      */
-    private void summarise(PlanNode plan, ArrayList<SimStep> path){
-
+    private static final class Task implements Runnable {
+        private final PlanNode plan;
+        private final int alpha;
+        private final ExecutionState state;
+        private final SplittableRandom rm;
 
+        // the simulation path, i.e., the actions in the order they are executed
+        private ActionNode[] path = new ActionNode[16];
+        private int length;
         /**
-         * latest position of each literal appear as precondition
+         * the latest position of each literal as a precondition and as a postcondition in the path being summarised,
+         * indexed by Literal.getIndex(), 0 if it does not appear
          */
-        HashMap<String, Integer> prePos = new HashMap<>();
+        private int[] prePos;
+        private int[] postPos;
         /**
-         * latest position of each literal appear as postcondition
+         * the indexes of the literals appearing in the path being summarised
          */
-        HashMap<String, Integer> postPos = new HashMap<>();
+        private int[] touched = new int[16];
+        private int nTouched = 0;
+        // the totals of the simulations of this task
+        private int[] frag;
+        private int[] estab;
+        private int totLength = 0;
+
+        Task(PlanNode plan, int alpha, ExecutionState state, SplittableRandom rm){
+            this.plan = plan;
+            this.alpha = alpha;
+            this.state = state;
+            this.rm = rm;
+        }
+
+        @Override
+        public void run(){
+            int n = 2 * LiteralTable.size();
+            prePos = new int[n];
+            postPos = new int[n];
+            frag = new int[n];
+            estab = new int[n];
+            // simulate alpha times
+            for(int i = 0; i < alpha; i++){
+                // generate a random path
+                length = 0;
+                randomSelect(plan);
+                // summarise the path
+                summarise();
+            }
+            // add the totals to the plan, which may be simulated by other tasks at the same time
+            state.addTotals(plan, frag, estab, totLength, alpha);
+        }
+
         /**
-         * count the number of time a literal being established
+         * recursively generate a simulation path
+         * @param plan
          */
-        //HashMap<String, Integer> postCount = new HashMap<>();
-        /** fragility of each literal
+        private void randomSelect(PlanNode plan){
+            // get the body of this plan
+            TreeNode[] body = plan.getPlanbody();
+            // check each step in this plan
+            for(int i = 0; i < body.length; i++){
+                // if it is an action, add it to the path
+                if(body[i] instanceof ActionNode){
+                    if(length == path.length)
+                        path = Arrays.copyOf(path, 2 * length);
+                    path[length++] = (ActionNode) body[i];
+                }
+                // if it is a subgoal
+                else if(body[i] instanceof GoalNode){
+                    // get the plans to achieve it
+                    PlanNode[] pls = ((GoalNode) body[i]).getPlans();
+                    // randomly select one plan, and recursively run selection
+                    if(pls.length > 0){
+                        randomSelect(pls[rm.nextInt(pls.length)]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * summarise the simulation information of the plan given the simulation path. The cycle of a step is its
+         * position in the path, starting from 1.
          */
-        //HashMap<String, Integer> frag = new HashMap<>();
-
-        // for each step in the simulation path do the following
-        for(int i = 0; i < path.size(); i++){
-            /** first update the position for postcondition */
-            // get its postcondition
-            Literal[] post = path.get(i).getPostCon();
-            // check each literal in its postcondition
-            for(int j = 0; j < post.length; j++){
-                String lname = post[j].toString();
-                // the latest position l appears as a precondition
-                int pos1 = 0;
-                if(prePos.containsKey(lname))
-                    pos1 = prePos.get(lname);
-                // the latest position l appears as a postcondition
-                int pos2 = 0;
-                if(postPos.containsKey(lname))
-                    pos2 = postPos.get(lname);
-
-                // if there is a l being required before this l is established
-                if(pos1 > 0){
-                    // get the position of l's negation
-                    int pos3 = 0;
-                    String lnegname = post[j].toNegString();
-                    if(postPos.containsKey(lnegname))
-                        pos3 = postPos.get(lnegname);
-                    // if it appears before the last appearance of l (as postcondition)
-                    if(pos3 <= pos2){
-                        int distance = pos1 - pos2; // fragility of l
-                        // there is  other fragility of l in this simulation
-                        HashMap<String, Integer> frag = plan.getTotSimFrag();
-                        if(frag.containsKey(lname)){
-                            int current = frag.get(lname);
-                            frag.put(lname, current + distance);
-                        }
-                        // otherwise
-                        else {
-                            frag.put(lname, distance);
+        private void summarise(){
+            // for each step in the simulation path do the following
+            for(int i = 0; i < length; i++){
+                int cycle = i + 1;
+                /** first update the position for postcondition */
+                // get its postcondition
+                Literal[] post = path[i].getPostc();
+                // check each literal in its postcondition
+                for(int j = 0; j < post.length; j++){
+                    int l = post[j].getIndex();
+                    // the latest position l appears as a precondition
+                    int pos1 = prePos[l];
+                    // the latest position l appears as a postcondition
+                    int pos2 = postPos[l];
+
+                    // if there is a l being required before this l is established
+                    if(pos1 > 0){
+                        // get the position of l's negation
+                        int pos3 = postPos[l ^ 1];
+                        // if it appears before the last appearance of l (as postcondition)
+                        if(pos3 <= pos2){
+                            frag[l] += pos1 - pos2; // fragility of l
                         }
+                        // set the position of l appears as precondition to 0
+                        prePos[l] = 0;
                     }
-                    // set the position of l appears as precondition to 0
-                    prePos.remove(lname);
-                    //prePos.put(lname, 0);
+                    // update position for l being postcondition
+                    postPos[l] = cycle;
+                    touch(l);
+                    // update the count
+                    estab[l]++;
                 }
-                // update position for l being postcondition
-                postPos.put(lname, path.get(i).getCycNum());
-                // update the count
-                HashMap<String, Integer> postCount = plan.getTotSimEstab();
-
-                if(postCount.containsKey(lname)){
-                    int pcount = postCount.get(lname);
-                    postCount.put(lname, pcount + 1);
-                }else {
-                    postCount.put(lname, 1);
-                }
-            }
 
-            // get its precondition
-            Literal[] pre = path.get(i).getPreCon();
-            for(int j = 0; j <pre.length; j++){
-                // update the position of  l being precondition
-                String lname = pre[j].toString();
-                prePos.put(lname, path.get(i).getCycNum());
+                // get its precondition
+                Literal[] pre = path[i].getPrec();
+                for(int j = 0; j <pre.length; j++){
+                    // update the position of  l being precondition
+                    int l = pre[j].getIndex();
+                    prePos[l] = cycle;
+                    touch(l);
+                }
             }
-        }
-        // after recording the position of each literal being pre- and post-condition, we calculate the fragility of
-        // each literal
-        for(Map.Entry<String, Integer> entry: prePos.entrySet())
-        {
-            // get the name of this literal
-            String lname = entry.getKey();
-            // get the position of l being precondition
-            int pos1 = entry.getValue();
-            // get the position of l being postcondition
-            int pos2 = 0;
-            if(postPos.containsKey(lname))
-                pos2 = postPos.get(lname);
-            // get the neg name
-            String lnegname;
-            if(lname.endsWith("+"))
-                lnegname = lname.substring(0, lname.length()-2)+"-";
-            else
-                lnegname = lname.substring(0, lname.length()-2)+"+";
-            // get the position of ~l being postcondition
-            int pos3 = 0;
-            if(postPos.containsKey(lnegname))
-                pos3 = postPos.get(lnegname);
-            if(pos3 <= pos2){
-                int distance = pos1 - pos2;
-                HashMap<String, Integer> frag = plan.getTotSimFrag();
-                if(frag.containsKey(lname)){
-                    int current = frag.get(lname);
-                    frag.put(lname, current+distance);
-                }else {
-                    frag.put(lname, distance);
+            // after recording the position of each literal being pre- and post-condition, we calculate the fragility
+            // of each literal
+            for(int k = 0; k < nTouched; k++){
+                int l = touched[k];
+                // get the position of l being precondition
+                int pos1 = prePos[l];
+                if(pos1 > 0){
+                    // get the position of l and ~l being postcondition
+                    int pos2 = postPos[l];
+                    int pos3 = postPos[l ^ 1];
+                    if(pos3 <= pos2){
+                        frag[l] += pos1 - pos2;
+                    }
+                    // a literal may be recorded several times
+                    prePos[l] = 0;
                 }
             }
+            // clear the positions for the next path
+            for(int k = 0; k < nTouched; k++){
+                prePos[touched[k]] = 0;
+                postPos[touched[k]] = 0;
+            }
+            nTouched = 0;
+            // total length updated
+            totLength += length;
         }
 
-        // update
-        // simulation number updated
-        int n = plan.getTotSimNum();
-        plan.setTotSimNum(n + 1);
-        // total length updated
-        int l = plan.getTotSimLength();
-        plan.setTotSimLength(l + path.size());
-
+        /**
+         * record that a literal appears in the path being summarised
+         */
+        private void touch(int l){
+            if(nTouched == touched.length)
+                touched = Arrays.copyOf(touched, 2 * nTouched);
+            touched[nTouched++] = l;
+        }
     }
 
 //    private void update(PlanNode plan, ArrayList<SimStep> path, HashMap<String, Integer> postCount, HashMap<String, Integer> frag){
@@ -0,0 +1,272 @@
+package xml2bdi;
+
+import goalplantree.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Reads a GPT file saved in the binary format, which holds the same content as the XML files without any text to
+ * parse. The file is memory-mapped and only its header is checked when the reader is created; the goal-plan trees are
+ * built from the mapped file the first time they are requested (see getModel()), so that a corpus of files can be
+ * opened at once and only the files that are used are built.
+ *
+ * Format (big-endian), written by BinaryWriter and by the BinaryWriter of genGPT:
+ *  header: int MAGIC, int VERSION, and the sizes of the sections: int literals, int environment, int nodes,
+ *  int children, int conditions, int tlgs, int number of bytes of the strings;
+ *  literals: for each literal, int offset of its name in the strings;
+ *  environment: for each literal of the environment, int (literal << 3 | flags), where the flags are INIT_TRUE,
+ *  INIT_RANDOM and STOCHASTIC;
+ *  nodes: for each node in depth-first order (a goal, then each of its plans followed by the steps of the plan),
+ *  NODE_INTS ints: kind (GOAL, PLAN or ACTION), offset of its name in the strings, first child and number of children,
+ *  first condition and number of conditions, first postcondition and number of postconditions;
+ *  children: the indexes of the children of the nodes, the children of a node being a range of this array (the plans
+ *  of a goal and the steps of a plan);
+ *  conditions: the conditions of the nodes, each one int (literal << 1 | 0 if true or 1 if false), the conditions of a
+ *  node being a range of this array (the goal-condition of a goal, the pre- and postcondition of a plan or an action);
+ *  tlgs: the indexes of the top-level goals;
+ *  strings: for each name, unsigned short length and UTF-8 bytes.
+ * The literal ids of the file are only local to the file and mapped to the LiteralTable when the trees are built.
+ */
+public class BinaryReader {
+
+    public static final int MAGIC = 0x47505442; // "GPTB"
+    public static final int VERSION = 1;
+    /**
+     * the extension of the binary GPT files
+     */
+    public static final String EXTENSION = ".gptb";
+
+    // the kinds of the nodes
+    static final int GOAL = 0;
+    static final int PLAN = 1;
+    static final int ACTION = 2;
+    // the flags of the literals of the environment
+    static final int INIT_TRUE = 1;
+    static final int INIT_RANDOM = 2;
+    static final int STOCHASTIC = 4;
+    // the number of ints of a node
+    static final int NODE_INTS = 8;
+    // the number of ints of the header
+    static final int HEADER_INTS = 9;
+
+    // the mapped file, released once the trees are built
+    private ByteBuffer buffer;
+    // the sections of the file
+    private IntBuffer literalNames, environment, nodes, children, conditions, tlgIndexes;
+    private int strings;
+    // the literals of the file, indexed by their literal in the conditions
+    private Literal[] literals;
+
+    /**
+     * the list of states
+     */
+    private ArrayList<Literal> states;
+    /**
+     * the list of intentions
+     */
+    private ArrayList<GoalNode> intentions;
+    /**
+     * the model of the file
+     */
+    private GptModel model;
+
+    public BinaryReader(String url){
+        try {
+            map(url);
+        }catch (Exception e){
+            System.out.println("Read binary GPT file error! " + " url: " + url);
+        }
+    }
+
+    /**
+     * read a GPT file, in the binary format if its name ends with EXTENSION and in XML otherwise
+     * @param url the file
+     * @return the model of the file, null if it could not be read
+     */
+    public static GptModel read(String url){
+        return url.endsWith(EXTENSION) ? new BinaryReader(url).getModel() : new StAXReader(url).getModel();
+    }
+
+    /**
+     * map the file and check its header
+     */
+    private void map(String url) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(url), StandardOpenOption.READ)){
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(buffer.limit() < HEADER_INTS * 4 || buffer.getInt(0) != MAGIC)
+            throw new IOException("not a binary GPT file");
+        if(buffer.getInt(4) != VERSION)
+            throw new IOException("unsupported version " + buffer.getInt(4));
+        int[] sizes = new int[7];
+        long length = HEADER_INTS * 4;
+        for(int i = 0; i < sizes.length; i++){
+            sizes[i] = buffer.getInt(8 + 4 * i);
+            if(sizes[i] < 0)
+                throw new IOException("corrupted header");
+            // the strings are counted in bytes, the other sections in ints
+            length += i == 6 ? sizes[i] : 4L * sizes[i] * (i == 2 ? NODE_INTS : 1);
+        }
+        if(length != buffer.limit())
+            throw new IOException("truncated file");
+        int offset = HEADER_INTS * 4;
+        literalNames = section(offset, sizes[0]);
+        offset += 4 * sizes[0];
+        environment = section(offset, sizes[1]);
+        offset += 4 * sizes[1];
+        nodes = section(offset, sizes[2] * NODE_INTS);
+        offset += 4 * sizes[2] * NODE_INTS;
+        children = section(offset, sizes[3]);
+        offset += 4 * sizes[3];
+        conditions = section(offset, sizes[4]);
+        offset += 4 * sizes[4];
+        tlgIndexes = section(offset, sizes[5]);
+        offset += 4 * sizes[5];
+        strings = offset;
+    }
+
+    private IntBuffer section(int offset, int ints){
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset).limit(offset + 4 * ints);
+        return b.slice().asIntBuffer();
+    }
+
+    /**
+     * build the goal-plan trees from the mapped file, if it has not been done yet
+     */
+    private void build(){
+        if(model != null || buffer == null)
+            return;
+        try {
+            read();
+        }catch (RuntimeException e){
+            System.out.println("Read binary GPT file error! " + e);
+            states = null;
+            intentions = null;
+        }
+        // the trees no longer need the file
+        buffer = null;
+        literalNames = environment = nodes = children = conditions = tlgIndexes = null;
+        literals = null;
+    }
+
+    private void read(){
+        literals = new Literal[2 * literalNames.limit()];
+        states = new ArrayList<>(environment.limit());
+        for(int i = 0; i < environment.limit(); i++){
+            int l = environment.get(i);
+            states.add(literal((l >>> 3) << 1 | ((l & INIT_TRUE) != 0 ? 0 : 1)));
+        }
+        intentions = new ArrayList<>(tlgIndexes.limit());
+        for(int i = 0; i < tlgIndexes.limit(); i++){
+            intentions.add((GoalNode) node(tlgIndexes.get(i)));
+        }
+        model = new GptModel(states, intentions);
+    }
+
+    /**
+     * @param i the index of a node
+     * @return the node and its subtree
+     */
+    private TreeNode node(int i){
+        int base = i * NODE_INTS;
+        int kind = nodes.get(base);
+        String name = string(nodes.get(base + 1));
+        int first = nodes.get(base + 2);
+        int count = nodes.get(base + 3);
+        Literal[] conds = conditions(nodes.get(base + 4), nodes.get(base + 5));
+        switch (kind){
+            case GOAL: {
+                PlanNode[] plans = new PlanNode[count];
+                for(int c = 0; c < count; c++){
+                    plans[c] = (PlanNode) node(children.get(first + c));
+                }
+                return new GoalNode(name, plans, conds);
+            }
+            case PLAN: {
+                TreeNode[] steps = new TreeNode[count];
+                for(int c = 0; c < count; c++){
+                    steps[c] = node(children.get(first + c));
+                }
+                return new PlanNode(name, conds, steps);
+            }
+            case ACTION:
+                return new ActionNode(name, conds, conditions(nodes.get(base + 6), nodes.get(base + 7)));
+            default:
+                throw new IllegalStateException("unknown node kind " + kind);
+        }
+    }
+
+    private Literal[] conditions(int first, int count){
+        Literal[] conds = new Literal[count];
+        for(int c = 0; c < count; c++){
+            conds[c] = literal(conditions.get(first + c));
+        }
+        return conds;
+    }
+
+    /**
+     * @param l a literal of the file, (literal << 1 | 0 if true or 1 if false)
+     * @return the literal, the same object for all its occurrences in the file
+     */
+    private Literal literal(int l){
+        Literal literal = literals[l];
+        if(literal == null){
+            literal = new Literal(string(literalNames.get(l >>> 1)), (l & 1) == 0);
+            literals[l] = literal;
+        }
+        return literal;
+    }
+
+    private String string(int offset){
+        int at = strings + offset;
+        int length = buffer.getShort(at) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer b = buffer.duplicate();
+        b.position(at + 2);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of nodes of the file, without building the trees; -1 if the file could not be read
+     */
+    public int getNodeCount(){
+        if(model != null)
+            return model.size();
+        return nodes == null ? -1 : nodes.limit() / NODE_INTS;
+    }
+
+    /**
+     * get the belief set read from the file
+     * @return
+     */
+    public ArrayList<Literal> getLiterals(){
+        build();
+        return this.states;
+    }
+
+    /**
+     * get the intentions from the file
+     * @return
+     */
+    public ArrayList<GoalNode> getTlgs(){
+        build();
+        return this.intentions;
+    }
+
+    /**
+     * @return the model of the file, null if it could not be read
+     */
+    public GptModel getModel(){
+        build();
+        return this.model;
+    }
+}
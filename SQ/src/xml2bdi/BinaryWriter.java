@@ -0,0 +1,190 @@
+package xml2bdi;
+
+import goalplantree.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static xml2bdi.BinaryReader.*;
+
+/**
+ * Writes the goal-plan trees of a GptModel in the binary format read by BinaryReader, and converts GPT files from
+ * XML to this format.
+ *
+ * usage: BinaryWriter [XML files or directories]
+ * Each XML file (or each XML file of a directory) "gpt.xml" is converted into "gpt.gptb" next to it.
+ *
+ * The XML files of SQ keep neither the random initial values nor the stochastic literals of the environment, so the
+ * converted files have neither of them; the files written by genGPT keep both.
+ */
+public class BinaryWriter {
+
+    /**
+     * a growable section of ints
+     */
+    private static final class Ints {
+        int[] values = new int[64];
+        int size;
+
+        void add(int v){
+            if(size == values.length)
+                values = Arrays.copyOf(values, 2 * size);
+            values[size++] = v;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            for(int i = 0; i < size; i++){
+                out.writeInt(values[i]);
+            }
+        }
+    }
+
+    private final Ints literalNames = new Ints();
+    private final Ints environment = new Ints();
+    private final Ints nodes = new Ints();
+    private final Ints children = new Ints();
+    private final Ints conditions = new Ints();
+    private final Ints tlgs = new Ints();
+    private final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+    // the offsets of the strings already written
+    private final HashMap<String, Integer> offsets = new HashMap<>();
+    // the literal of the file of each literal name
+    private final HashMap<String, Integer> literals = new HashMap<>();
+
+    private BinaryWriter(){
+    }
+
+    public static void main(String[] args) throws IOException {
+        for(String arg : args){
+            File file = new File(arg);
+            File[] fs = file.isDirectory() ? file.listFiles((dir, name) -> name.endsWith(".xml")) : new File[]{file};
+            if(fs == null)
+                continue;
+            for(File f : fs){
+                GptModel model = new StAXReader(f.getPath()).getModel();
+                if(model == null)
+                    continue;
+                String path = f.getPath();
+                Path target = Paths.get(path.substring(0, path.length() - ".xml".length()) + EXTENSION);
+                write(model, target);
+                System.out.println(f.getPath() + " -> " + target);
+            }
+        }
+    }
+
+    /**
+     * write the goal-plan trees of a model
+     * @param model the model
+     * @param path the file to write to, which is replaced atomically
+     */
+    public static void write(GptModel model, Path path) throws IOException {
+        BinaryWriter w = new BinaryWriter();
+        for(Literal l : model.getLiterals()){
+            w.environment.add(w.literal(l.getName()) << 3 | (l.getState() ? INIT_TRUE : 0));
+        }
+        // the nodes are numbered in depth-first order by the model, which is the order of the file
+        for(int i = 0; i < model.size(); i++){
+            w.node(model.getNode(i));
+        }
+        for(GoalNode goal : model.getTlgs()){
+            w.tlgs.add(goal.getIndex());
+        }
+
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(w.literalNames.size);
+                out.writeInt(w.environment.size);
+                out.writeInt(w.nodes.size / NODE_INTS);
+                out.writeInt(w.children.size);
+                out.writeInt(w.conditions.size);
+                out.writeInt(w.tlgs.size);
+                out.writeInt(w.strings.size());
+                w.literalNames.write(out);
+                w.environment.write(out);
+                w.nodes.write(out);
+                w.children.write(out);
+                w.conditions.write(out);
+                w.tlgs.write(out);
+                w.strings.writeTo(out);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void node(TreeNode node){
+        int kind;
+        TreeNode[] cs;
+        Literal[] conds;
+        Literal[] post = new Literal[0];
+        if(node instanceof GoalNode){
+            kind = GOAL;
+            cs = ((GoalNode) node).getPlans();
+            conds = ((GoalNode) node).getGoalConds();
+        }else if(node instanceof PlanNode){
+            kind = PLAN;
+            cs = ((PlanNode) node).getPlanbody();
+            conds = ((PlanNode) node).getPrec();
+        }else {
+            kind = ACTION;
+            cs = new TreeNode[0];
+            conds = ((ActionNode) node).getPrec();
+            post = ((ActionNode) node).getPostc();
+        }
+        nodes.add(kind);
+        nodes.add(string(node.getName()));
+        nodes.add(children.size);
+        nodes.add(cs.length);
+        for(TreeNode c : cs){
+            children.add(c.getIndex());
+        }
+        conditions(conds);
+        conditions(post);
+    }
+
+    private void conditions(Literal[] conds){
+        nodes.add(conditions.size);
+        nodes.add(conds.length);
+        for(Literal l : conds){
+            conditions.add(literal(l.getName()) << 1 | (l.getState() ? 0 : 1));
+        }
+    }
+
+    /**
+     * @return the literal of the file with this name
+     */
+    private int literal(String name){
+        Integer l = literals.get(name);
+        if(l == null){
+            l = literalNames.size;
+            literalNames.add(string(name));
+            literals.put(name, l);
+        }
+        return l;
+    }
+
+    /**
+     * @return the offset of the string in the strings, which is written once
+     */
+    private int string(String s){
+        Integer offset = offsets.get(s);
+        if(offset == null){
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if(bytes.length > 0xFFFF)
+                throw new IllegalArgumentException("name too long: " + s.substring(0, 32) + "...");
+            offset = strings.size();
+            strings.write(bytes.length >>> 8);
+            strings.write(bytes.length);
+            strings.write(bytes, 0, bytes.length);
+            offsets.put(s, offset);
+        }
+        return offset;
+    }
+}
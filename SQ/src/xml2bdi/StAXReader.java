@@ -0,0 +1,236 @@
+package xml2bdi;
+
+import goalplantree.*;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads a GPT file in one streaming pass (javax.xml.stream), building the goal-plan trees as the elements are read
+ * instead of building a document first as XMLReader does. The file has the same format: a root element whose first
+ * child lists the literals of the environment, followed by the top-level goals.
+ *
+ * The literals are interned while reading: all the occurrences of a literal in the conditions of the file are the
+ * same Literal object, named by the name kept in the LiteralTable. The cost of reading is measured by the callers
+ * (see benchmark.LoaderBenchmark), so reading a file has no other effect.
+ */
+public class StAXReader {
+
+    private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    /**
+     * the list of states
+     */
+    private ArrayList<Literal> states;
+    /**
+     * the list of intentions
+     */
+    private ArrayList<GoalNode> intentions;
+    /**
+     * the model of the file
+     */
+    private GptModel model;
+    /**
+     * the literals read so far, indexed by Literal.getIndex()
+     */
+    private Literal[] literals = new Literal[128];
+    /**
+     * the tokens of the condition being read
+     */
+    private final StringBuilder token = new StringBuilder();
+    private final ArrayList<String> tokens = new ArrayList<>();
+
+    public StAXReader(String url){
+        try {
+            translate(url);
+        }catch (Exception e){
+            System.out.println("Read XML file error! " + " url: " + url);
+        }
+    }
+
+    private void translate(String url) throws Exception {
+        try(InputStream in = new BufferedInputStream(new FileInputStream(url), 1 << 16)){
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                // the root element
+                nextElement(reader);
+                // the environment
+                if(nextElement(reader)){
+                    states = new ArrayList<>();
+                    while (nextElement(reader)){
+                        states.add(literal(reader.getAttributeValue(null, "name"),
+                                "true".equals(reader.getAttributeValue(null, "initVal"))));
+                        skip(reader);
+                    }
+                }
+                // the top-level goals
+                intentions = new ArrayList<>();
+                while (nextElement(reader)){
+                    intentions.add(readGoal(reader));
+                }
+            }finally {
+                reader.close();
+            }
+        }
+        model = new GptModel(states, intentions);
+    }
+
+    /**
+     * move to the next child element of the current element
+     * @return true, if the reader is at the start of a child element; false, if it is at the end of the current
+     * element (or of the document)
+     */
+    private static boolean nextElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()){
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT)
+                return true;
+            if(event == XMLStreamConstants.END_ELEMENT)
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * skip the rest of the current element, including its children
+     */
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        while (nextElement(reader)){
+            skip(reader);
+        }
+    }
+
+    /**
+     * read a goal element, the reader is at its start and ends at its end
+     * @return the goal node
+     */
+    private GoalNode readGoal(XMLStreamReader reader) throws XMLStreamException {
+        // the attributes must be read before the children
+        String name = reader.getAttributeValue(null, "name");
+        Literal[] conditions = readCondition(reader.getAttributeValue(null, "goal-condition"));
+        // every child is a plan
+        ArrayList<PlanNode> plans = new ArrayList<>();
+        while (nextElement(reader)){
+            plans.add(readPlan(reader));
+        }
+        return new GoalNode(name, plans.toArray(new PlanNode[0]), conditions);
+    }
+
+    /**
+     * read a plan element, the reader is at its start and ends at its end
+     * @return the plan node
+     */
+    private PlanNode readPlan(XMLStreamReader reader) throws XMLStreamException {
+        String name = reader.getAttributeValue(null, "name");
+        Literal[] conditions;
+        try{
+            conditions = readCondition(reader.getAttributeValue(null, "precondition"));
+        }catch (RuntimeException e){
+            conditions = new Literal[0];
+        }
+        // the steps are the actions and the subgoals, in order
+        ArrayList<TreeNode> steps = new ArrayList<>();
+        while (nextElement(reader)){
+            String type = reader.getLocalName();
+            if(type.equals("Action")){
+                steps.add(readAction(reader));
+            }else if(type.equals("Goal")){
+                steps.add(readGoal(reader));
+            }else {
+                skip(reader);
+            }
+        }
+        return new PlanNode(name, conditions, steps.toArray(new TreeNode[0]));
+    }
+
+    /**
+     * read an action element, the reader is at its start and ends at its end
+     * @return the action node
+     */
+    private ActionNode readAction(XMLStreamReader reader) throws XMLStreamException {
+        String name = reader.getAttributeValue(null, "name");
+        Literal[] prec = readCondition(reader.getAttributeValue(null, "precondition"));
+        Literal[] postc = readCondition(reader.getAttributeValue(null, "postcondition"));
+        skip(reader);
+        return new ActionNode(name, prec, postc);
+    }
+
+    /**
+     * read a list of conditions such as "(l1,true), (l2,false);". As in XMLReader, the white spaces, parentheses and
+     * semicolons are ignored and the rest is read as comma-separated pairs of a name and a value.
+     * @param conditions the string of the conditions
+     * @return the literals
+     */
+    private Literal[] readCondition(String conditions){
+        if(conditions == null)
+            return new Literal[0];
+        tokens.clear();
+        token.setLength(0);
+        for(int i = 0; i < conditions.length(); i++){
+            char c = conditions.charAt(i);
+            if(c == ','){
+                tokens.add(token.toString());
+                token.setLength(0);
+            }else if(c != '(' && c != ')' && c != ';' && !Character.isWhitespace(c)){
+                token.append(c);
+            }
+        }
+        tokens.add(token.toString());
+        // the empty tokens at the end are not read, as by String.split
+        int n = tokens.size();
+        while (n > 0 && tokens.get(n - 1).isEmpty()){
+            n--;
+        }
+        Literal[] cons = new Literal[n / 2];
+        for(int i = 0; i < cons.length; i++){
+            cons[i] = literal(tokens.get(i * 2), tokens.get(i * 2 + 1).equals("true"));
+        }
+        return cons;
+    }
+
+    /**
+     * @return the literal with the given name and state, the same object for all its occurrences in the file
+     */
+    private Literal literal(String name, boolean state){
+        int id = LiteralTable.intern(name);
+        int index = 2 * id + (state ? 0 : 1);
+        if(index >= literals.length)
+            literals = Arrays.copyOf(literals, Math.max(index + 1, 2 * literals.length));
+        Literal l = literals[index];
+        if(l == null){
+            l = new Literal(LiteralTable.nameOf(id), state);
+            literals[index] = l;
+        }
+        return l;
+    }
+
+    /**
+     * get the belief set read from an xml file
+     * @return
+     */
+    public ArrayList<Literal> getLiterals(){
+        return this.states;
+    }
+
+    /**
+     * get the intentions from the xml file
+     * @return
+     */
+    public ArrayList<GoalNode> getTlgs(){
+        return this.intentions;
+    }
+
+    /**
+     * @return the model of the xml file, null if it could not be read
+     */
+    public GptModel getModel(){
+        return this.model;
+    }
+}
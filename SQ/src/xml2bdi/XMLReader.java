@@ -19,6 +19,10 @@ public class XMLReader {
      * the list of intentions
      */
     private ArrayList<GoalNode> intentions;
+    /**
+     * the model of the file, which numbers the nodes of the goal-plan trees
+     */
+    private GptModel model;
 
     public XMLReader(String url){
         try {
@@ -56,6 +60,7 @@ public class XMLReader {
         for( int i = 1; i < toplevelgoals.size(); i++){
             intentions.add(readGoal(toplevelgoals.get(i)));
         }
+        model = new GptModel(states, intentions);
     }
 
 
@@ -174,4 +179,11 @@ public class XMLReader {
         return this.intentions;
     }
 
+    /**
+     * @return the model of the xml file, null if it could not be read
+     */
+    public GptModel getModel(){
+        return this.model;
+    }
+
 }
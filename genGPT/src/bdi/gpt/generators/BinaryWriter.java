@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020 Yuan Yao
+ * Zhejiang University of Technology
+ * Email: yaoyuan@zjut.edu.cn (yuanyao1990yy@icloud.com)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details
+ *  <http://www.gnu.org/licenses/gpl-3.0.html>.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bdi.gpt.generators;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import bdi.gpt.structure.ActionNode;
+import bdi.gpt.structure.GoalNode;
+import bdi.gpt.structure.Literal;
+import bdi.gpt.structure.Node;
+import bdi.gpt.structure.PlanNode;
+
+/**
+ * The binary counterpart of XMLWriter: writes the environment and the GPT forest in the binary format read by
+ * xml2bdi.BinaryReader of SQ, which is loaded without parsing any text. See BinaryReader for the layout of the file.
+ * @version 2.1
+ */
+class BinaryWriter
+{
+	/** the extension of the binary files */
+	static final String EXTENSION = ".gptb";
+
+	private static final int MAGIC = 0x47505442; // "GPTB"
+	private static final int VERSION = 1;
+
+	// the kinds of the nodes
+	private static final int GOAL = 0;
+	private static final int PLAN = 1;
+	private static final int ACTION = 2;
+
+	// the flags of the literals of the environment
+	private static final int INIT_TRUE = 1;
+	private static final int INIT_RANDOM = 2;
+	private static final int STOCHASTIC = 4;
+
+	// the sections of the file
+	private final ArrayList<Integer> literalNames = new ArrayList<>();
+	private final ArrayList<Integer> envVars = new ArrayList<>();
+	private final ArrayList<Integer> nodes = new ArrayList<>();
+	private final ArrayList<Integer> children = new ArrayList<>();
+	private final ArrayList<Integer> conditions = new ArrayList<>();
+	private final ArrayList<Integer> tlgs = new ArrayList<>();
+	private final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+
+	/** the offset of each string written */
+	private final HashMap<String, Integer> offsets = new HashMap<>();
+	/** the literal of the file of each literal name */
+	private final HashMap<String, Integer> literals = new HashMap<>();
+	/** the index of each node, in depth-first order */
+	private final IdentityHashMap<Node, Integer> indexes = new IdentityHashMap<>();
+
+	BinaryWriter()
+	{
+	}
+
+	/**
+	 * Write the rich environment and GPT forest
+	 * @param environment The full passed environment
+	 * @param goalForests The GPT forest
+	 * @param path The file to write to
+	 */
+	void CreateBinary(HashMap<String, Literal> environment, ArrayList<GoalNode> goalForests, String path) {
+		try
+		{
+			for (Literal envVar : environment.values()) {
+				// as in the XML files, a random initial value is not true
+				int flags = envVar.isRandomInit() ? INIT_RANDOM : (envVar.getState() ? INIT_TRUE : 0);
+				flags |= envVar.isStochastic() ? STOCHASTIC : 0;
+				envVars.add(literal(envVar.getId()) << 3 | flags);
+			}
+			// number the nodes first, as the children of a node are written with it
+			ArrayList<Node> order = new ArrayList<>();
+			for (GoalNode gl : goalForests) {
+				number(gl, order);
+			}
+			for (Node node : order) {
+				writeNode(node);
+			}
+			for (GoalNode gl : goalForests) {
+				tlgs.add(indexes.get(gl));
+			}
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path))))
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(literalNames.size());
+				out.writeInt(envVars.size());
+				out.writeInt(order.size());
+				out.writeInt(children.size());
+				out.writeInt(conditions.size());
+				out.writeInt(tlgs.size());
+				out.writeInt(strings.size());
+				writeInts(literalNames, out);
+				writeInts(envVars, out);
+				writeInts(nodes, out);
+				writeInts(children, out);
+				writeInts(conditions, out);
+				writeInts(tlgs, out);
+				strings.writeTo(out);
+			}
+			System.out.println("Binary File was created successfully!");
+		}
+		catch(IOException ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * number a node and its subtree in depth-first order
+	 * @param node The node
+	 * @param order The nodes numbered so far
+	 */
+	private void number(Node node, ArrayList<Node> order)
+	{
+		indexes.put(node, order.size());
+		order.add(node);
+		if (node instanceof GoalNode) {
+			for (PlanNode pl : ((GoalNode) node).getPlans()) {
+				number(pl, order);
+			}
+		}
+		else if (node instanceof PlanNode) {
+			for (Node step : ((PlanNode) node).getPlanBody()) {
+				number(step, order);
+			}
+		}
+	}
+
+	/**
+	 * write a node: its kind, its name, its children and its conditions
+	 * @param node The node
+	 */
+	private void writeNode(Node node)
+	{
+		ArrayList<? extends Node> cs = new ArrayList<>();
+		ArrayList<Literal> conds;
+		ArrayList<Literal> post;
+		if (node instanceof GoalNode) {
+			nodes.add(GOAL);
+			cs = ((GoalNode) node).getPlans();
+			conds = ((GoalNode) node).getGoalConds();
+			post = null;
+		}
+		else if (node instanceof PlanNode) {
+			nodes.add(PLAN);
+			cs = ((PlanNode) node).getPlanBody();
+			conds = ((PlanNode) node).getPre();
+			post = ((PlanNode) node).getPost();
+		}
+		else {
+			nodes.add(ACTION);
+			conds = ((ActionNode) node).getPreC();
+			post = ((ActionNode) node).getPostC();
+		}
+		nodes.add(string(node.getName()));
+		nodes.add(children.size());
+		nodes.add(cs.size());
+		for (Node c : cs) {
+			children.add(indexes.get(c));
+		}
+		writeConditions(conds);
+		writeConditions(post);
+	}
+
+	/**
+	 * write a list of conditions
+	 * @param st The conditions, may be null
+	 */
+	private void writeConditions(ArrayList<Literal> st)
+	{
+		nodes.add(conditions.size());
+		nodes.add(st == null ? 0 : st.size());
+		if (st != null) {
+			for (Literal l : st) {
+				conditions.add(literal(l.getId()) << 1 | (l.getState() ? 0 : 1));
+			}
+		}
+	}
+
+	/**
+	 * @param name The name of a literal
+	 * @return the literal of the file with this name
+	 */
+	private int literal(String name)
+	{
+		Integer l = literals.get(name);
+		if (l == null) {
+			l = literalNames.size();
+			literalNames.add(string(name));
+			literals.put(name, l);
+		}
+		return l;
+	}
+
+	/**
+	 * @param s A name
+	 * @return the offset of the name in the strings, where it is written once
+	 */
+	private int string(String s)
+	{
+		Integer offset = offsets.get(s);
+		if (offset == null) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > 0xFFFF) {
+				throw new IllegalArgumentException("name too long: " + s);
+			}
+			offset = strings.size();
+			strings.write(bytes.length >>> 8);
+			strings.write(bytes.length);
+			strings.write(bytes, 0, bytes.length);
+			offsets.put(s, offset);
+		}
+		return offset;
+	}
+
+	private static void writeInts(ArrayList<Integer> values, DataOutputStream out) throws IOException
+	{
+		for (int v : values) {
+			out.writeInt(v);
+		}
+	}
+}
@@ -94,7 +94,7 @@ class Main
 						"-e\n Number of selected literals. If the value is not specified, 30 is default.\n" +
 						"-l\n Number of literals per action. If the value is not specified, 1 is default.\n" +
 							"-x\n Probability of a plan being leave plan. If the value is not specified, 0 is default\n" +
-						"-f\n The output file path to which the set of goal-plan tree is saved. If the value is not specified, gpt.xml is default.\n";
+						"-f\n The output file path to which the set of goal-plan tree is saved. If the value is not specified, gpt.xml is default. A path ending with .gptb is saved in the binary format.\n";
 
 					// parser for the input parameters
 					int i = 1;
@@ -294,7 +294,7 @@ class Main
 						"-s\n Random seed. If the value is not specified, 100 is default \n" +
 						"-p\n Number of passengers(goals) to be used in the GPT. If the value is not specified, 10 is default.\n" +
 						"-l\n Number of floors to be used in the GPT. If the value is not specified, 10 is default.\n" +
-						"-f\n The output file path to which the set of goal-plan tree is saved. If the value is not specified, gpt.xml is default.\n";
+						"-f\n The output file path to which the set of goal-plan tree is saved. If the value is not specified, gpt.xml is default. A path ending with .gptb is saved in the binary format.\n";
 
 				// parser for the input parameters
 				int i = 1;
@@ -376,7 +376,7 @@ class Main
 						"-p\n Number of parcels(goals) to be used in the GPT. If the value is not specified, 10 is default.\n" +
 						"-t\n Number of stops to be used in the GPT. If the value is not specified, 10 is default.\n" +
 						"-a\n Number of parcels that the transport can carry. If the value is not specified, 2 is default.\n" +
-						"-f\n The output file path to which the set of goal-plan tree is saved. If the value is not specified, gpt.xml is default.\n";
+						"-f\n The output file path to which the set of goal-plan tree is saved. If the value is not specified, gpt.xml is default. A path ending with .gptb is saved in the binary format.\n";
 
 				// parser for the input parameters
 				int i = 1;
@@ -485,7 +485,7 @@ class Main
 						"-t\n Number of trees to be used in the GPT. If the value is not specified, 10 is default.\n" +
 						"-b\n Number of blocks to be used in the GPT. If the value is not specified, 10 is default.\n" +
 						"-e\n height of the towers to be made in the GPT. If the value is not specified, 4 is default.\n" +
-						"-f\n The output file path to which the set of goal-plan tree is saved. If the value is not specified, gpt.xml is default.\n";
+						"-f\n The output file path to which the set of goal-plan tree is saved. If the value is not specified, gpt.xml is default. A path ending with .gptb is saved in the binary format.\n";
 
 				// parser for the input parameters
 				int i = 1;
@@ -594,9 +594,15 @@ class Main
 			goalForests.add(gen.genTopLevelGoal(k));
 		}
 
-		// write the set of goal plan tree to an XML file
-		XMLWriter wxf = new XMLWriter();
-		wxf.CreateXML(environment, goalForests, path);
+		// write the set of goal plan tree to a binary file if its extension is .gptb, or to an XML file
+		if (path.endsWith(BinaryWriter.EXTENSION)) {
+			BinaryWriter wbf = new BinaryWriter();
+			wbf.CreateBinary(environment, goalForests, path);
+		}
+		else {
+			XMLWriter wxf = new XMLWriter();
+			wxf.CreateXML(environment, goalForests, path);
+		}
 	}
 
 	